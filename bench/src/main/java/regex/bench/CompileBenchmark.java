@@ -0,0 +1,57 @@
+package regex.bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import org.openjdk.jmh.annotations.*;
+import regex.Regex;
+
+/* Time to turn a pattern into an object that can search, which for REGEX covers
+ * tokenizing, parsing and compiling the program, but not building DFA states. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompileBenchmark {
+
+	@Param({"literal", "charclass", "alternation", "nested"})
+	public String kind;
+
+	private String source;
+
+	@Setup
+	public void setup() {
+		switch (kind) {
+			case "literal":
+				source = "Sherlock Holmes";
+				break;
+			case "charclass":
+				source = "[A-Za-z_][A-Za-z0-9_]*[^\\x00-\\x1f\\u007f-\\u00ff]";
+				break;
+			case "alternation":
+				// fifty words, as in a dictionary search
+				StringBuilder words = new StringBuilder();
+				for (int i = 0; i < 50; i++)
+					words.append(i == 0 ? "" : "|").append("word").append((char)('a' + i % 26))
+						.append(i);
+				source = words.toString();
+				break;
+			case "nested":
+				source = "((a|b)*c(d|e)+)?f(gh|i(j|k)*)+";
+				break;
+			default:
+				throw new IllegalArgumentException(kind);
+		}
+	}
+
+	@Benchmark
+	public Regex regex() {
+		return new Regex(source);
+	}
+
+	@Benchmark
+	public Pattern pattern() {
+		return Pattern.compile(source);
+	}
+}
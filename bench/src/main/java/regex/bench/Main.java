@@ -0,0 +1,38 @@
+package regex.bench;
+
+import java.io.IOException;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/* Runs the benchmarks chosen by the JMH command line ARGS, always with the GC profiler,
+ * which reports the bytes allocated per operation next to the time taken. */
+public class Main {
+
+	public static void main(String[] args) throws RunnerException, CommandLineOptionException,
+			IOException {
+		CommandLineOptions cmd = new CommandLineOptions(args);
+		if (cmd.shouldHelp()) {
+			cmd.showHelp();
+			return;
+		}
+		if (cmd.shouldList()) {
+			new Runner(cmd).list();
+			return;
+		}
+
+		ChainedOptionsBuilder options = new OptionsBuilder().parent(cmd)
+			.addProfiler(GCProfiler.class);
+		// a library built on Java 21 uses preview features, which the forks must enable,
+		// and candidate scanning uses vectors only when the forks add their module
+		if (Runtime.version().feature() == 21)
+			options.jvmArgsPrepend("--enable-preview", "--add-modules=jdk.incubator.vector");
+		else
+			options.jvmArgsPrepend("--add-modules=jdk.incubator.vector");
+		new Runner(options.build()).run();
+	}
+}
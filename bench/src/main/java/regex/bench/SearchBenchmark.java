@@ -0,0 +1,74 @@
+package regex.bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import org.openjdk.jmh.annotations.*;
+import regex.Regex;
+import regex.Search;
+
+/* Time to find every match in texts of several sizes, for literal patterns, patterns
+ * made of character classes, alternations, and a pattern whose DFA has many states. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SearchBenchmark {
+
+	@Param({"literal", "charclass", "alternation", "states"})
+	public String kind;
+
+	@Param({"1024", "65536", "1048576"})
+	public int size;
+
+	private Regex regex;
+	private Pattern pattern;
+	private String text;
+
+	@Setup
+	public void setup() {
+		String source;
+		switch (kind) {
+			case "literal":
+				source = "Lestrade";
+				text = Texts.words(size);
+				break;
+			case "charclass":
+				source = "[A-Z][a-z]*[^a-z ][0-9a-z]*";
+				text = Texts.words(size);
+				break;
+			case "alternation":
+				source = "(holmes|watson|Lestrade) (said|was)|Baker street";
+				text = Texts.words(size);
+				break;
+			case "states":
+				// a DFA for this pattern needs a state for each of the last 8 characters
+				source = "a[ab][ab][ab][ab][ab][ab][ab]c";
+				text = Texts.random("abc", size);
+				break;
+			default:
+				throw new IllegalArgumentException(kind);
+		}
+		regex = new Regex(source);
+		pattern = Pattern.compile(source);
+	}
+
+	@Benchmark
+	public int regex() {
+		Search s = new Search(regex, text);
+		int count = 0;
+		while (s.find())
+			count++;
+		return count;
+	}
+
+	@Benchmark
+	public int pattern() {
+		java.util.regex.Matcher m = pattern.matcher(text);
+		int count = 0;
+		while (m.find())
+			count++;
+		return count;
+	}
+}
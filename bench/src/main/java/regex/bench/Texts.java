@@ -0,0 +1,40 @@
+package regex.bench;
+
+import java.util.Random;
+
+/* Texts searched by the benchmarks, the same on every run. */
+final class Texts {
+	private static final String[] WORDS = {"the", "of", "and", "to", "in", "holmes", "was",
+		"watson", "that", "it", "his", "he", "had", "with", "for", "as", "you", "said",
+		"upon", "there", "nothing", "something", "morning", "evening", "Baker", "street",
+		"221b", "1891", "Moriarty", "thing", "looking", "being", "Lestrade"};
+
+	private Texts() {
+	}
+
+	/* Returns LENGTH characters of words separated by spaces and line breaks. */
+	static String words(int length) {
+		Random random = new Random(42);
+		StringBuilder text = new StringBuilder(length + 16);
+		while (text.length() < length) {
+			text.append(WORDS[random.nextInt(WORDS.length)]);
+			text.append(random.nextInt(12) == 0 ? '\n' : ' ');
+		}
+		text.setLength(length);
+		return text.toString();
+	}
+
+	/* Returns LENGTH characters each chosen at random from CHARS. */
+	static String random(String chars, int length) {
+		Random random = new Random(42);
+		char[] text = new char[length];
+		for (int i = 0; i < length; i++)
+			text[i] = chars.charAt(random.nextInt(chars.length()));
+		return new String(text);
+	}
+
+	/* Returns COUNT copies of C. */
+	static String repeat(char c, int count) {
+		return String.valueOf(c).repeat(count);
+	}
+}
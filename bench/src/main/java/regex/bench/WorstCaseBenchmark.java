@@ -0,0 +1,46 @@
+package regex.bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import org.openjdk.jmh.annotations.*;
+import regex.Regex;
+import regex.Search;
+
+/* Time to search inputs on which a backtracking engine tries a number of ways to match
+ * that grows exponentially with the length of the text. Regex takes linear time, so the
+ * sizes are kept small enough for Pattern to finish. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WorstCaseBenchmark {
+
+	@Param({"(x+x+)+y", "(a|aa)*b", "(.*a){12}"})
+	public String source;
+
+	@Param({"8", "16", "22"})
+	public int size;
+
+	private Regex regex;
+	private Pattern pattern;
+	private String text;
+
+	@Setup
+	public void setup() {
+		regex = new Regex(source);
+		pattern = Pattern.compile(source);
+		text = Texts.repeat(source.charAt(1) == 'x' ? 'x' : 'a', size);
+	}
+
+	@Benchmark
+	public boolean regex() {
+		return new Search(regex, text).find();
+	}
+
+	@Benchmark
+	public boolean pattern() {
+		return pattern.matcher(text).find();
+	}
+}
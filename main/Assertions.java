@@ -0,0 +1,116 @@
+package regex;
+
+/* Decides the ASSERT instructions of a PROGRAM at one position of a text, for the NFA
+ * engine, which moves POS as it runs. The text begins at BEGIN: no character before it
+ * is read. An assertion that depends on characters at or after END does not hold unless
+ * ENDED says that the text ends there: a thread stopped at it then waits for more text
+ * like one that needs another character, and WAITING keeps where it began. */
+final class Assertions {
+	private static final CharSet WORD = new CharSet(new int[] {'a', 'z', 'A', 'Z', '_', '_',
+		'0', '9'});
+
+	private final CharSet[] sets;	// sets of the program
+	private final boolean utf8;		// true if the program matches UTF-8 bytes
+	private CharSequence text;
+	private int begin;				// index at which TEXT begins, or -1 if it begins
+									// before index 0 and only the character before
+									// each position searched is in TEXT
+	private int end;				// index at which the known part of TEXT ends
+	private boolean ended;			// true if TEXT ends at END
+	int pos;						// position at which assertions are decided
+	int waiting = -1;				// earliest start of a thread stopped by an
+									// assertion that more text could make hold, -1 if
+									// none
+
+	/* Creates the assertions of a program with SETS, which matches UTF-8 bytes if UTF8
+	 * is true. RESET gives them the text to read. */
+	Assertions(CharSet[] sets, boolean utf8) {
+		this.sets = sets;
+		this.utf8 = utf8;
+	}
+
+	/* Makes the assertions read TEXT, which begins at BEGIN and ends at END if ENDED is
+	 * true, for a new run. */
+	void reset(CharSequence text, int begin, int end, boolean ended) {
+		this.text = text;
+		this.begin = begin;
+		this.end = end;
+		this.ended = ended;
+		waiting = -1;
+	}
+
+	/* Returns true if assertion KIND with operand ARG holds at POS for the thread that
+	 * began at START. */
+	boolean holds(int kind, int arg, int start) {
+		switch (kind) {
+			case Program.NOT_NEXT:
+				if (pos >= end)
+					return ended || waits(start);
+				if (!utf8)
+					return !sets[arg].contains(Text.charAt(text, pos));
+				int c = Utf8.decode(text, pos, end);
+				if (c == -2)
+					return ended || waits(start);
+				return c == -1 || !Utf8.contains(sets[arg], c);
+			case Program.BEGIN:
+				return pos == begin;
+			case Program.END:
+				return pos >= end && (ended || waits(start));
+			case Program.END_LINE:
+				if (pos >= end)
+					return ended || waits(start);
+				int length = terminator();
+				if (length == -1)
+					return waits(start);
+				return length > 0 && pos + length == end && (ended || waits(start));
+			case Program.WORD_BOUNDARY:
+			case Program.NOT_WORD_BOUNDARY:
+				if (pos >= end && !ended)
+					return waits(start);
+				// no position within the bytes of a code point is a boundary or not one
+				if (utf8 && pos < end && (Text.charAt(text, pos) & 0xC0) == 0x80)
+					return false;
+				boolean boundary = (pos > begin && isWord(pos - 1)) != (pos < end && isWord(pos));
+				return boundary == (kind == Program.WORD_BOUNDARY);
+			default:
+				throw new IllegalStateException("unknown assertion " + kind);
+		}
+	}
+
+	/* Returns the number of characters of the line terminator at POS, before END: one
+	 * for \n, \r, U+0085, U+2028 and U+2029, two for \r\n, and the bytes of their
+	 * encoding in UTF-8. Returns 0 if there is none, and -1 if END may cut one short
+	 * when the text goes on after it. A \n after a \r is part of the terminator before
+	 * it. */
+	private int terminator() {
+		int c = utf8 ? Utf8.decode(text, pos, end) : Text.charAt(text, pos);
+		switch (c) {
+			case -2:
+				return ended ? 0 : -1;
+			case '\r':
+				if (pos + 1 == end)
+					return ended ? 1 : -1;
+				return Text.charAt(text, pos + 1) == '\n' ? 2 : 1;
+			case '\n':
+				return pos > begin && Text.charAt(text, pos - 1) == '\r' ? 0 : 1;
+			case 0x85:
+			case 0x2028:
+			case 0x2029:
+				return utf8 ? (c == 0x85 ? 2 : 3) : 1;
+			default:
+				return 0;
+		}
+	}
+
+	/* Returns true if the character at index I of TEXT is a word character. */
+	private boolean isWord(int i) {
+		return WORD.contains(Text.charAt(text, i));
+	}
+
+	/* Notes that the thread that began at START waits for more text, and returns false. */
+	private boolean waits(int start) {
+		if (waiting == -1 || start < waiting)
+			waiting = start;
+		return false;
+	}
+}
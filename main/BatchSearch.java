@@ -0,0 +1,171 @@
+package regex;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/* Searches many documents for one pattern with several workers. Each worker takes the
+ * documents a batch at a time and searches them with its own scratch space and its own
+ * view of CharBuffers, so that no SEARCH is created and nothing is allocated per
+ * document. The workers share the REGEX, whose DFA states are built once and then read
+ * by all of them without locking. By default the workers are virtual threads, one per
+ * processor. */
+public class BatchSearch {
+	private static final int BATCH = 64;	// documents taken by a worker at a time
+
+	private Regex regex;
+	private Executor executor;
+	private int workers;
+
+	/* Creates a BatchSearch for R running one virtual thread per processor. */
+	public BatchSearch(Regex r) {
+		this(r, Thread.ofVirtual()::start, Runtime.getRuntime().availableProcessors());
+	}
+
+	/* Creates a BatchSearch for R running WORKERS workers on EXECUTOR. */
+	public BatchSearch(Regex r, Executor executor, int workers) {
+		if (workers < 1)
+			throw new IllegalArgumentException("fewer than one worker");
+		regex = r;
+		this.executor = executor;
+		this.workers = workers;
+	}
+
+	/* Returns the start and end indices of the first match in each of DOCUMENTS, those
+	 * of document i at index 2i and 2i + 1, or -1 for a document without a match. */
+	public int[] find(List<? extends CharSequence> documents) {
+		// the workers take documents by index, which a linked list would have to walk to
+		List<? extends CharSequence> list = documents instanceof RandomAccess ? documents
+			: new ArrayList<CharSequence>(documents);
+		int size = list.size();
+		int[] result = new int[2 * size];
+		AtomicInteger next = new AtomicInteger();	// first document of the next batch
+
+		run(stopped -> {
+			int[] bounds = new int[2];
+			Scratch scratch = new Scratch();
+			Text.ArrayText view = new Text.ArrayText(new char[0], 0, 0);
+			int first;
+			while (!stopped.get() && (first = next.getAndAdd(BATCH)) < size) {
+				int last = Math.min(first + BATCH, size);
+				for (int i = first; i < last; i++) {
+					CharSequence text = Text.wrap(list.get(i), view);
+					if (regex.search(text, 0, 0, text.length(), text.length() + 1, bounds,
+							scratch)) {
+						result[2 * i] = bounds[0];
+						result[2 * i + 1] = bounds[1];
+					} else {
+						result[2 * i] = -1;
+						result[2 * i + 1] = -1;
+					}
+				}
+			}
+		});
+		return result;
+	}
+
+	/* Returns the number of DOCUMENTS that contain a match. */
+	public long count(Iterable<? extends CharSequence> documents) {
+		return count(documents.iterator());
+	}
+
+	/* Returns the number of documents returned by DOCUMENTS that contain a match. The
+	 * workers take turns calling DOCUMENTS, which need not be thread safe. */
+	public long count(Iterator<? extends CharSequence> documents) {
+		LongAdder count = new LongAdder();
+		// not a monitor, which would keep a virtual thread blocked in DOCUMENTS.NEXT
+		// from letting go of its carrier thread
+		ReentrantLock lock = new ReentrantLock();
+
+		run(stopped -> {
+			int[] bounds = new int[2];
+			Scratch scratch = new Scratch();
+			Text.ArrayText view = new Text.ArrayText(new char[0], 0, 0);
+			CharSequence[] batch = new CharSequence[BATCH];
+			while (!stopped.get()) {
+				int n = 0;
+				lock.lock();
+				try {
+					while (n < BATCH && documents.hasNext())
+						batch[n++] = documents.next();
+				} finally {
+					lock.unlock();
+				}
+				if (n == 0)
+					return;
+
+				int found = 0;
+				for (int i = 0; i < n; i++) {
+					CharSequence text = Text.wrap(batch[i], view);
+					if (regex.search(text, 0, 0, text.length(), text.length() + 1, bounds,
+							scratch))
+						found++;
+					batch[i] = null;	// let the document be collected
+				}
+				count.add(found);
+			}
+		});
+		return count.sum();
+	}
+
+	/* Work done by every worker until there are no documents left or STOPPED is true. */
+	private interface Task {
+		void run(AtomicBoolean stopped);
+	}
+
+	/* Runs TASK on each worker and waits for all of them to finish. The first exception
+	 * thrown by a worker stops the others and is thrown again. Throws
+	 * CancellationException if the calling thread is interrupted while waiting. */
+	private void run(Task task) {
+		CountDownLatch done = new CountDownLatch(workers);
+		AtomicBoolean stopped = new AtomicBoolean();
+		AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+		for (int i = 0; i < workers; i++) {
+			Runnable worker = () -> {
+				try {
+					task.run(stopped);
+				} catch (Throwable t) {
+					failure.compareAndSet(null, t);
+					stopped.set(true);
+				} finally {
+					done.countDown();
+				}
+			};
+			try {
+				executor.execute(worker);
+			} catch (RuntimeException e) {
+				// stop the workers already started, which still must be waited for
+				failure.compareAndSet(null, e);
+				stopped.set(true);
+				for (; i < workers; i++)
+					done.countDown();
+			}
+		}
+
+		try {
+			done.await();
+		} catch (InterruptedException e) {
+			stopped.set(true);
+			Thread.currentThread().interrupt();
+			throw new CancellationException("interrupted");
+		}
+
+		Throwable t = failure.get();
+		if (t instanceof RuntimeException)
+			throw (RuntimeException)t;
+		if (t instanceof Error)
+			throw (Error)t;
+		if (t != null)
+			throw new RuntimeException(t);
+	}
+}
@@ -0,0 +1,372 @@
+package regex;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/* Turns a program made only of CHAR and SET instructions, followed by MATCH, into a
+ * class whose MATCH method tests each character of the text in turn, with no loop over
+ * the instructions. A CHAR becomes one comparison, and a SET a few range comparisons,
+ * or a call to CHARSET.CONTAINS for the larger sets. The class is defined
+ * as a hidden class, which is unloaded once the COMPILEDPATTERN is no longer reachable.
+ *
+ * The class file is written by hand in version 49, the last one that needs no stack
+ * map frames, since the generated code is simple enough for the older verifier. */
+final class BytecodeCompiler {
+	private static final int MAX_LENGTH = 256;	// characters of the longest pattern
+												// compiled, so that branches stay short
+	private static final int MAX_INLINE_RANGES = 8;	// ranges of a set tested inline
+
+	// opcodes used by the generated code
+	private static final int ICONST_M1 = 0x02;
+	private static final int ICONST_0 = 0x03;
+	private static final int BIPUSH = 0x10;
+	private static final int SIPUSH = 0x11;
+	private static final int LDC_W = 0x13;
+	private static final int ILOAD = 0x15;
+	private static final int ALOAD_0 = 0x2A;
+	private static final int ALOAD_1 = 0x2B;
+	private static final int AALOAD = 0x32;
+	private static final int ISTORE = 0x36;
+	private static final int IADD = 0x60;
+	private static final int ISUB = 0x64;
+	private static final int IFEQ = 0x99;
+	private static final int IF_ICMPNE = 0xA0;
+	private static final int IF_ICMPLT = 0xA1;
+	private static final int IF_ICMPLE = 0xA4;
+	private static final int GOTO = 0xA7;
+	private static final int IRETURN = 0xAC;
+	private static final int RETURN = 0xB1;
+	private static final int GETFIELD = 0xB4;
+	private static final int INVOKEVIRTUAL = 0xB6;
+	private static final int INVOKESPECIAL = 0xB7;
+	private static final int INVOKESTATIC = 0xB8;
+
+	// local variables of MATCH, after THIS and TEXT
+	private static final int START = 2;
+	private static final int END = 3;
+	private static final int CHAR = 4;
+
+	private byte[] pool;	// constant pool entries
+	private int poolSize;	// size of POOL in bytes
+	private int poolCount;	// index of the next entry
+	private HashMap<String, Integer> entries;
+	private byte[] code;
+	private int codeSize;
+
+	private BytecodeCompiler() {
+		pool = new byte[256];
+		poolCount = 1;
+		entries = new HashMap<String, Integer>();
+		code = new byte[256];
+	}
+
+	/* Returns a COMPILEDPATTERN that runs PROGRAM, whose LENGTH CHAR and SET instructions
+	 * use SETS. Returns null if there are none or the pattern is too long to be
+	 * compiled. */
+	static CompiledPattern compile(int[] program, CharSet[] sets, int length) {
+		if (length == 0 || length > MAX_LENGTH)
+			return null;
+
+		BytecodeCompiler c = new BytecodeCompiler();
+		byte[] bytes = c.generate(program, sets, length);
+		if (bytes == null)
+			return null;
+		try {
+			// not STRONG, so that the class can be unloaded with the last instance
+			MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+			return (CompiledPattern)lookup.findConstructor(lookup.lookupClass(),
+				MethodType.methodType(void.class, CharSet[].class))
+				.invoke(sets);
+		} catch (RuntimeException | Error e) {
+			throw e;
+		} catch (Throwable t) {
+			throw new IllegalStateException("cannot define compiled pattern", t);
+		}
+	}
+
+	/* Returns the class file of a COMPILEDPATTERN for PROGRAM and SETS, whose matches are LENGTH
+	 * characters long, or null if MATCH would be too long for its branches. */
+	private byte[] generate(int[] program, CharSet[] sets, int length) {
+		int thisClass = classEntry("regex/GeneratedPattern");
+		int superClass = classEntry("regex/CompiledPattern");
+		int codeName = utf8("Code");
+		int init = utf8("<init>");
+		int initType = utf8("([Lregex/CharSet;)V");
+		int superInit = member(10, "regex/CompiledPattern", "<init>", "([Lregex/CharSet;)V");
+		int matchName = utf8("match");
+		int matchType = utf8("(Ljava/lang/CharSequence;II)I");
+
+		// constructor: super(sets)
+		op(ALOAD_0);
+		op(ALOAD_1);
+		op(INVOKESPECIAL);
+		u2(superInit);
+		op(RETURN);
+		byte[] initCode = Arrays.copyOf(code, codeSize);
+
+		codeSize = 0;
+		generateMatch(program, sets, length);
+		if (codeSize > Short.MAX_VALUE)
+			return null;
+		byte[] matchCode = Arrays.copyOf(code, codeSize);
+
+		Out out = new Out();
+		out.u4(0xCAFEBABE);
+		out.u2(0);
+		out.u2(49);
+		out.u2(poolCount);
+		out.bytes(pool, poolSize);
+		out.u2(0x0030);	// ACC_FINAL | ACC_SUPER
+		out.u2(thisClass);
+		out.u2(superClass);
+		out.u2(0);	// interfaces
+		out.u2(0);	// fields
+		out.u2(2);	// methods
+		method(out, 0, init, initType, codeName, 2, 2, initCode);
+		method(out, 0, matchName, matchType, codeName, 4, CHAR + 1, matchCode);
+		out.u2(0);	// attributes
+		return Arrays.copyOf(out.data, out.size);
+	}
+
+	/* Writes the code of MATCH. */
+	private void generateMatch(int[] program, CharSet[] sets, int length) {
+		int charAt = member(10, "regex/Text", "charAt", "(Ljava/lang/CharSequence;I)C");
+		int contains = member(10, "regex/CharSet", "contains", "(I)Z");
+		int setsField = member(9, "regex/CompiledPattern", "sets", "[Lregex/CharSet;");
+		ArrayList<Integer> fails = new ArrayList<Integer>();	// branches to the failure
+
+		// if (end - start < length) fail
+		load(END);
+		load(START);
+		op(ISUB);
+		push(length);
+		fails.add(branch(IF_ICMPLT));
+
+		for (int k = 0; k < length; k++) {
+			// instruction K tests the character at offset K from START
+			int pc = 2 * k;
+			loadChar(k, charAt);
+			if (program[pc] == Program.CHAR) {
+				push(program[pc + 1]);
+				fails.add(branch(IF_ICMPNE));
+				continue;
+			}
+
+			int[] ranges = sets[program[pc + 1]].getRanges();
+			if (ranges.length > 2 * MAX_INLINE_RANGES) {
+				// if (!sets[i].contains(c)) fail
+				op(ISTORE);
+				op(CHAR);
+				op(ALOAD_0);
+				op(GETFIELD);
+				u2(setsField);
+				push(program[pc + 1]);
+				op(AALOAD);
+				load(CHAR);
+				op(INVOKEVIRTUAL);
+				u2(contains);
+				fails.add(branch(IFEQ));
+				continue;
+			}
+
+			// The ranges are sorted, so a character below a range is in none of the
+			// ranges left, and one at most the upper bound of a range is in it.
+			op(ISTORE);
+			op(CHAR);
+			ArrayList<Integer> found = new ArrayList<Integer>();
+			for (int i = 0; i < ranges.length; i += 2) {
+				load(CHAR);
+				push(ranges[i]);
+				fails.add(branch(IF_ICMPLT));
+				load(CHAR);
+				push(ranges[i + 1]);
+				found.add(branch(IF_ICMPLE));
+			}
+			fails.add(branch(GOTO));
+			for (int at : found)
+				target(at);
+		}
+
+		// return start + length
+		load(START);
+		push(length);
+		op(IADD);
+		op(IRETURN);
+
+		for (int at : fails)
+			target(at);
+		op(ICONST_M1);
+		op(IRETURN);
+	}
+
+	/* Pushes the character of the text at START + K. */
+	private void loadChar(int k, int charAt) {
+		op(ALOAD_1);
+		load(START);
+		if (k > 0) {
+			push(k);
+			op(IADD);
+		}
+		op(INVOKESTATIC);
+		u2(charAt);
+	}
+
+	private void load(int local) {
+		op(ILOAD);
+		op(local);
+	}
+
+	private void push(int value) {
+		if (value >= -1 && value <= 5) {
+			op(ICONST_0 + value);
+		} else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+			op(BIPUSH);
+			op(value);
+		} else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+			op(SIPUSH);
+			u2(value);
+		} else {
+			op(LDC_W);
+			u2(integer(value));
+		}
+	}
+
+	/* Writes a branch instruction whose offset is set later by TARGET. Returns the
+	 * position of the instruction. */
+	private int branch(int opcode) {
+		int at = codeSize;
+		op(opcode);
+		u2(0);
+		return at;
+	}
+
+	/* Makes the branch at AT jump to the current position. */
+	private void target(int at) {
+		int offset = codeSize - at;
+		code[at + 1] = (byte)(offset >> 8);
+		code[at + 2] = (byte)offset;
+	}
+
+	private void op(int b) {
+		if (codeSize == code.length)
+			code = Arrays.copyOf(code, 2 * code.length);
+		code[codeSize++] = (byte)b;
+	}
+
+	private void u2(int v) {
+		op(v >> 8);
+		op(v);
+	}
+
+	/* Writes a method with a Code attribute holding CODE and no exception handlers. */
+	private static void method(Out out, int access, int name, int type, int codeName,
+			int maxStack, int maxLocals, byte[] code) {
+		out.u2(access);
+		out.u2(name);
+		out.u2(type);
+		out.u2(1);	// attributes
+		out.u2(codeName);
+		out.u4(12 + code.length);
+		out.u2(maxStack);
+		out.u2(maxLocals);
+		out.u4(code.length);
+		out.bytes(code, code.length);
+		out.u2(0);	// exception table
+		out.u2(0);	// attributes
+	}
+
+	/* The following return the index of a constant pool entry, adding it if needed. */
+
+	private int utf8(String s) {
+		Integer index = entries.get("U" + s);
+		if (index != null)
+			return index;
+		Out e = new Out();
+		e.u1(1);
+		e.u2(s.length());	// only ASCII names are used
+		for (int i = 0; i < s.length(); i++)
+			e.u1(s.charAt(i));
+		return add("U" + s, e);
+	}
+
+	private int classEntry(String name) {
+		Integer index = entries.get("C" + name);
+		if (index != null)
+			return index;
+		Out e = new Out();
+		e.u1(7);
+		e.u2(utf8(name));
+		return add("C" + name, e);
+	}
+
+	private int integer(int value) {
+		Integer index = entries.get("I" + value);
+		if (index != null)
+			return index;
+		Out e = new Out();
+		e.u1(3);
+		e.u4(value);
+		return add("I" + value, e);
+	}
+
+	/* Returns a Fieldref (TAG 9) or Methodref (TAG 10) entry. */
+	private int member(int tag, String owner, String name, String type) {
+		String key = "M" + owner + "." + name + type;
+		Integer index = entries.get(key);
+		if (index != null)
+			return index;
+		Out nameAndType = new Out();
+		nameAndType.u1(12);
+		nameAndType.u2(utf8(name));
+		nameAndType.u2(utf8(type));
+		int nt = add("N" + name + type, nameAndType);
+
+		Out e = new Out();
+		e.u1(tag);
+		e.u2(classEntry(owner));
+		e.u2(nt);
+		return add(key, e);
+	}
+
+	private int add(String key, Out entry) {
+		Integer index = entries.get(key);
+		if (index != null)
+			return index;
+		if (poolSize + entry.size > pool.length)
+			pool = Arrays.copyOf(pool, Math.max(2 * pool.length, poolSize + entry.size));
+		System.arraycopy(entry.data, 0, pool, poolSize, entry.size);
+		poolSize += entry.size;
+		entries.put(key, poolCount);
+		return poolCount++;
+	}
+
+	/* Growable big-endian byte buffer. */
+	private static final class Out {
+		byte[] data = new byte[64];
+		int size;
+
+		void u1(int b) {
+			if (size == data.length)
+				data = Arrays.copyOf(data, 2 * data.length);
+			data[size++] = (byte)b;
+		}
+
+		void u2(int v) {
+			u1(v >> 8);
+			u1(v);
+		}
+
+		void u4(int v) {
+			u2(v >> 16);
+			u2(v);
+		}
+
+		void bytes(byte[] b, int n) {
+			for (int i = 0; i < n; i++)
+				u1(b[i]);
+		}
+	}
+}
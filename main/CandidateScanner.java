@@ -0,0 +1,64 @@
+package regex;
+
+/* Finds the positions of a text at which a pattern could begin: those holding one of the
+ * characters with which every match begins, when there are few of them. Used by REGEX
+ * to skip the other positions without trying a match at each of them.
+ *
+ * When the jdk.incubator.vector module is present, which takes --add-modules
+ * jdk.incubator.vector, texts backed by a char array are scanned by VECTORSCANNER many
+ * characters at a time. A single character is looked for in a String with INDEXOF,
+ * which the JIT compiles into vector instructions of its own. Other texts are not
+ * scanned, since testing their characters one at a time is no faster than running the
+ * engines over them. */
+class CandidateScanner {
+	static final int MAX_RANGES = 4;	// ranges of the largest set scanned for
+
+	private static final boolean VECTOR = ModuleLayer.boot()
+		.findModule("jdk.incubator.vector").isPresent();
+
+	final int[] ranges;	// sorted pairs of inclusive bounds of the characters looked for
+	final char single;	// the character looked for, if RANGES holds only one
+
+	CandidateScanner(CharSet set) {
+		ranges = set.getRanges();
+		single = (char)ranges[0];
+	}
+
+	/* Returns a scanner for the characters of SET, scanning vectors of characters if
+	 * the module is present, or null if SET is null, empty or too large for scanning
+	 * to be worth it. */
+	static CandidateScanner create(CharSet set) {
+		return create(set, VECTOR);
+	}
+
+	/* Like CREATE, scanning vectors of characters only if VECTOR is true. */
+	static CandidateScanner create(CharSet set, boolean vector) {
+		if (set == null || set.getRanges().length == 0
+				|| set.getRanges().length > 2 * MAX_RANGES)
+			return null;
+		return vector ? VectorScanner.create(set) : new CandidateScanner(set);
+	}
+
+	/* Returns an index at or after FROM and before END such that TEXT holds none of the
+	 * characters looked for before it, or -1 if it holds none of them before END. The
+	 * index is that of the first such character if TEXT is scanned, and FROM if not. */
+	int next(CharSequence text, int from, int end) {
+		if (from >= end)
+			return -1;
+		if (ranges.length == 2 && ranges[0] == ranges[1] && text instanceof String)
+			return ((String)text).indexOf(single, from, end);
+		return from;
+	}
+
+	/* Returns true if C is one of the characters looked for. */
+	final boolean contains(char c) {
+		for (int i = 0; i < ranges.length; i += 2) {
+			// the ranges are sorted, so C is in none of the ranges left
+			if (c < ranges[i])
+				return false;
+			if (c <= ranges[i + 1])
+				return true;
+		}
+		return false;
+	}
+}
@@ -0,0 +1,127 @@
+package regex;
+
+import java.util.Arrays;
+
+/* Simple case folding, by which a pattern compiled with REGEX.CASE_INSENSITIVE matches a
+ * character in any of its cases. The characters that are equal ignoring case form an
+ * orbit: ORBIT maps each character to the next one of its orbit, and the last one back
+ * to the first, so that a character without other cases maps to itself. Matchers fold
+ * their characters and sets when they are compiled, adding the other characters of
+ * each orbit, so that matching takes no more work than without the flag.
+ *
+ * ASCII folds only the letters A to Z and a to z. UNICODE folds every character below
+ * 0x10000 that java.lang.Character maps to another case, as java.util.regex does with
+ * UNICODE_CASE: two characters are in the same orbit when the lowercase of their
+ * uppercase is the same. */
+final class CaseFolding {
+	static final CaseFolding ASCII = ascii();
+
+	private final char[] orbit;		// next character of the orbit of each character below
+									// its length, the others having no other case
+	private final int[] cased;		// ranges of the characters whose orbit is not only
+									// themselves, as sorted pairs of inclusive bounds
+
+	private CaseFolding(char[] orbit) {
+		this.orbit = orbit;
+		int[] ranges = new int[16];
+		int n = 0;
+		for (int c = 0; c < orbit.length; c++) {
+			if (orbit[c] == c)
+				continue;
+			if (n > 0 && ranges[n - 1] == c - 1) {
+				ranges[n - 1] = c;
+				continue;
+			}
+			if (n == ranges.length)
+				ranges = Arrays.copyOf(ranges, 2 * n);
+			ranges[n++] = c;
+			ranges[n++] = c;
+		}
+		cased = Arrays.copyOf(ranges, n);
+	}
+
+	/* Returns the folding of every character that has other cases, which is built the
+	 * first time it is used. */
+	static CaseFolding unicode() {
+		return Unicode.FOLDING;
+	}
+
+	/* Returns the characters equal to C ignoring case, C included, or null if C has no
+	 * other case. */
+	CharSet variants(char c) {
+		if (c >= orbit.length || orbit[c] == c)
+			return null;
+		int[] ranges = new int[8];
+		int n = 0;
+		char d = c;
+		do {
+			if (n == ranges.length)
+				ranges = Arrays.copyOf(ranges, 2 * n);
+			ranges[n++] = d;
+			ranges[n++] = d;
+			d = orbit[d];
+		} while (d != c);
+		return new CharSet(Arrays.copyOf(ranges, n));
+	}
+
+	/* Returns the characters equal ignoring case to a member of SET, or SET itself if
+	 * there are no others. Only the characters that have other cases are looked at, so
+	 * a large SET costs no more than a small one. */
+	CharSet fold(CharSet set) {
+		int[] added = new int[16];
+		int n = 0;
+		for (int i = 0; i < cased.length; i += 2) {
+			for (int c = cased[i]; c <= cased[i + 1]; c++) {
+				if (!set.contains(c))
+					continue;
+				for (char d = orbit[c]; d != c; d = orbit[d]) {
+					if (set.contains(d))
+						continue;
+					if (n == added.length)
+						added = Arrays.copyOf(added, 2 * n);
+					added[n++] = d;
+					added[n++] = d;
+				}
+			}
+		}
+		return n == 0 ? set : set.union(new CharSet(Arrays.copyOf(added, n)));
+	}
+
+	private static CaseFolding ascii() {
+		char[] orbit = new char[128];
+		for (char c = 0; c < orbit.length; c++)
+			orbit[c] = c >= 'A' && c <= 'Z' ? (char)(c + 32) : c >= 'a' && c <= 'z'
+				? (char)(c - 32) : c;
+		return new CaseFolding(orbit);
+	}
+
+	/* Initialized the first time it is used. */
+	private static final class Unicode {
+		static final CaseFolding FOLDING;
+
+		static {
+			// each character follows the last one before it with the same key, and is
+			// followed by the first one until another comes
+			char[] orbit = new char[CharSet.MAX + 1];
+			int[] first = new int[CharSet.MAX + 1];
+			int[] last = new int[CharSet.MAX + 1];
+			Arrays.fill(first, -1);
+			for (int c = 0; c <= CharSet.MAX; c++) {
+				orbit[c] = (char)c;
+				if (Character.isSurrogate((char)c))
+					continue;
+				int key = Character.toLowerCase(Character.toUpperCase(c));
+				if (key > CharSet.MAX)
+					continue;
+				if (first[key] == -1) {
+					first[key] = c;
+				} else {
+					orbit[last[key]] = (char)c;
+					orbit[c] = (char)first[key];
+				}
+				last[key] = c;
+			}
+			FOLDING = new CaseFolding(orbit);
+		}
+	}
+}
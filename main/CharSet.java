@@ -0,0 +1,154 @@
+package regex;
+
+import java.util.Arrays;
+
+/* Set of characters compiled into a flat form. Characters below 256 are looked up in a
+ * bitmap; all other characters are found by binary search in a sorted array of
+ * non-overlapping, non-adjacent ranges. Sets with many ranges, like those of Unicode
+ * properties, instead look every character up in a two-level table of bitmaps. */
+class CharSet {
+	static final int MAX = 0xFFFF;	// largest character a set can contain
+	private static final int INDEXED_RANGES = 16;	// sets with more ranges get BLOCKS
+
+	private long[] bits;	// membership of characters 0 - 255
+	private int[] ranges;	// sorted pairs of inclusive bounds [lo0, hi0, lo1, hi1, ...]
+	private char[] index;	// BLOCKS[INDEX[c >> 6]] holds the bit of c, null for small sets
+	private long[] blocks;	// distinct bitmaps of 64 characters
+
+	/* RANGES holds pairs of inclusive bounds in any order, possibly overlapping. */
+	CharSet(int[] ranges) {
+		this.ranges = normalize(ranges);
+		bits = new long[4];
+		for (int i = 0; i < this.ranges.length && this.ranges[i] < 256; i += 2) {
+			int hi = Math.min(this.ranges[i + 1], 255);
+			for (int c = this.ranges[i]; c <= hi; c++)
+				bits[c >> 6] |= 1L << c;
+		}
+		if (this.ranges.length > 2 * INDEXED_RANGES)
+			buildIndex();
+	}
+
+	/* Fills INDEX and BLOCKS, sharing the bitmap of the blocks that are alike, most of
+	 * which are empty or full. */
+	private void buildIndex() {
+		long[] all = new long[(MAX + 1) >> 6];
+		for (int i = 0; i < ranges.length; i += 2) {
+			int lo = ranges[i];
+			int hi = ranges[i + 1];
+			// the bits from LO up in its block, and from HI down in its block
+			long from = -1L << lo;
+			long to = -1L >>> (63 - (hi & 63));
+			if (lo >> 6 == hi >> 6) {
+				all[lo >> 6] |= from & to;
+			} else {
+				all[lo >> 6] |= from;
+				Arrays.fill(all, (lo >> 6) + 1, hi >> 6, -1L);
+				all[hi >> 6] |= to;
+			}
+		}
+
+		long[] sorted = all.clone();
+		Arrays.sort(sorted);
+		int n = 0;
+		for (int i = 0; i < sorted.length; i++) {
+			if (n == 0 || sorted[i] != sorted[n - 1])
+				sorted[n++] = sorted[i];
+		}
+		blocks = Arrays.copyOf(sorted, n);
+		index = new char[all.length];
+		for (int i = 0; i < all.length; i++)
+			index[i] = (char)Arrays.binarySearch(blocks, all[i]);
+	}
+
+	/* Returns true if C is a member of this set. */
+	boolean contains(int c) {
+		if (c < 256)
+			return (bits[c >> 6] & (1L << c)) != 0;
+		if (index != null)
+			return (blocks[index[c >> 6]] & (1L << c)) != 0;
+
+		// find the last range whose lower bound is <= C
+		int lo = 0;
+		int hi = ranges.length / 2 - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			if (ranges[2 * mid] <= c)
+				lo = mid + 1;
+			else
+				hi = mid - 1;
+		}
+		return hi >= 0 && c <= ranges[2 * hi + 1];
+	}
+
+	/* Returns the sorted pairs of inclusive bounds of this set. */
+	int[] getRanges() {
+		return ranges;
+	}
+
+	/* Returns the set of characters that are in this set or in OTHER. */
+	CharSet union(CharSet other) {
+		int[] both = Arrays.copyOf(ranges, ranges.length + other.ranges.length);
+		System.arraycopy(other.ranges, 0, both, ranges.length, other.ranges.length);
+		return new CharSet(both);
+	}
+
+	/* Returns true if this set and OTHER have a character in common. */
+	boolean intersects(CharSet other) {
+		int i = 0;
+		int j = 0;
+		while (i < ranges.length && j < other.ranges.length) {
+			if (ranges[i + 1] < other.ranges[j])
+				i += 2;
+			else if (other.ranges[j + 1] < ranges[i])
+				j += 2;
+			else
+				return true;
+		}
+		return false;
+	}
+
+	/* Returns the set of characters from 0 to MAX that are not in this set. */
+	CharSet complement() {
+		int[] result = new int[ranges.length + 2];
+		int n = 0;
+		int next = 0;	// smallest character not yet covered
+		for (int i = 0; i < ranges.length; i += 2) {
+			if (ranges[i] > next) {
+				result[n++] = next;
+				result[n++] = ranges[i] - 1;
+			}
+			next = ranges[i + 1] + 1;
+		}
+		if (next <= MAX) {
+			result[n++] = next;
+			result[n++] = MAX;
+		}
+		return new CharSet(Arrays.copyOf(result, n));
+	}
+
+	/* Sorts the pairs in RANGES by lower bound and merges pairs that overlap or touch. */
+	private static int[] normalize(int[] ranges) {
+		int count = ranges.length / 2;
+		long[] pairs = new long[count];
+		for (int i = 0; i < count; i++) {
+			if (ranges[2 * i] > ranges[2 * i + 1])
+				throw new IllegalArgumentException("empty range");
+			pairs[i] = ((long)ranges[2 * i] << 32) | ranges[2 * i + 1];
+		}
+		Arrays.sort(pairs);
+
+		int[] result = new int[2 * count];
+		int n = 0;
+		for (long pair : pairs) {
+			int lo = (int)(pair >>> 32);
+			int hi = (int)pair;
+			if (n > 0 && lo <= result[n - 1] + 1) {
+				result[n - 1] = Math.max(result[n - 1], hi);
+			} else {
+				result[n++] = lo;
+				result[n++] = hi;
+			}
+		}
+		return Arrays.copyOf(result, n);
+	}
+}
@@ -0,0 +1,109 @@
+package regex;
+
+import java.io.IOException;
+
+/* Searches a text that cannot be held in one CharSequence, because it is too long or
+ * is not all available yet. PATTERN is run over a window of the text that slides
+ * forward: text leaves the window once no match can begin in it, and a search whose
+ * result could change with the text after the window is run again once more of it has
+ * been loaded. Matches are reported with offsets into the whole text, in units chosen by
+ * the subclass. */
+abstract class ChunkedSearch {
+
+	private Regex pattern;
+	private int pos;		// index in the window at which the next search begins
+	private boolean slid;	// true once text has left the window
+	private long start;		// offset of the start of the last match
+	private long end;		// offset of the end of the last match
+	private String match;	// last match found
+	private int[] bounds;	// indices in the window of the last match found
+	private Scratch scratch;	// space used by the searches, kept from one to the next
+	private boolean[] hitEnd;	// set by SEARCHPARTIAL, kept so it is not allocated
+
+	ChunkedSearch(Regex r) {
+		pattern = r;
+		pos = 0;
+		match = null;
+		bounds = new int[2];
+		scratch = new Scratch();
+		hitEnd = new boolean[1];
+	}
+
+	/* Returns the text in the window. */
+	abstract CharSequence window();
+
+	/* Returns true if the window reaches the end of the text. */
+	abstract boolean atEnd();
+
+	/* Returns the offset into the whole text of index I of the window. I may be the
+	 * length of the window. */
+	abstract long offset(int i);
+
+	/* Removes the text before index FROM from the window, so that the character at FROM
+	 * moves to index 0, and loads more text at the end of the window. Unless the end of
+	 * the text is reached, at least one character is loaded, making the window larger if
+	 * there is no room left. */
+	abstract void slide(int from) throws IOException;
+
+	/* Returns true if there is a subsequence of the text after the previous match that
+	 * matches PATTERN. Returns false otherwise. */
+	public boolean find() throws IOException {
+		while (true) {
+			CharSequence text = window();
+			int length = text.length();
+			int begin = slid ? -1 : 0;	// index in the window at which the text begins
+			if (atEnd()) {
+				if (pos <= length && pattern.search(text, begin, pos, length, length + 1,
+						bounds, scratch))
+					return found(text);
+				pos = length + 1;
+				match = null;
+				return false;
+			}
+
+			int resume = length;
+			if (pos <= length) {
+				resume = pattern.searchPartial(text, begin, pos, length, bounds, scratch, hitEnd);
+				if (resume == -1)
+					return found(text);
+			}
+			// assertions such as \b read the character before where the search goes on
+			int keep = resume > 0 && pattern.hasAssertions() ? 1 : 0;
+			slide(resume - keep);
+			slid |= resume - keep > 0;
+			// the search goes on from RESUME, or just past the old window if POS was
+			pos = Math.max(pos - resume, 0) + keep;
+		}
+	}
+
+	private boolean found(CharSequence text) {
+		start = offset(bounds[0]);
+		end = offset(bounds[1]);
+		match = text.subSequence(bounds[0], bounds[1]).toString();
+		// an empty match must not be found again at the same position
+		pos = bounds[1] > bounds[0] ? bounds[1] : bounds[1] + 1;
+		return true;
+	}
+
+	/* Returns the offset at which the match found by the last invocation of FIND
+	 * begins. */
+	public long start() {
+		if (match == null)
+			throw new IllegalStateException("no match");
+		return start;
+	}
+
+	/* Returns the offset just after the end of the match found by the last invocation
+	 * of FIND. */
+	public long end() {
+		if (match == null)
+			throw new IllegalStateException("no match");
+		return end;
+	}
+
+	/* Returns the match that was found by the last invocation of FIND. If the last
+	 * invocation was not successful, returns NULL. */
+	public String getResult() {
+		return match;
+	}
+}
@@ -0,0 +1,263 @@
+package regex;
+
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+
+/* Set of code points, which a text holds either as single characters or, above 0xFFFF,
+ * as surrogate pairs. Used by the matchers of Unicode properties, which unlike the
+ * other matchers consume a surrogate pair as one character. A surrogate that is not
+ * part of a pair is in no set.
+ *
+ * The engines only know sets of characters, so a pair is compiled into two SET
+ * instructions, one for the high surrogate and one for the low surrogate. The high
+ * surrogates that can be followed by the same low surrogates share their instructions,
+ * which leaves a few dozen alternatives even for the largest properties. */
+final class CodePointSet {
+	private static final int SURROGATES = 1024;	// number of high, and of low, surrogates
+	private static final CharSet SURROGATE_CHARS = new CharSet(new int[] {
+		Character.MIN_SURROGATE, Character.MAX_SURROGATE});
+
+	private final CharSet chars;	// members below 0x10000, without the surrogates
+	private final long[][] pairs;	// bit L of PAIRS[H] is set if the pair of high surrogate
+									// MIN_HIGH_SURROGATE + H and low surrogate
+									// MIN_LOW_SURROGATE + L is a member, PAIRS[H] is null
+									// if no pair beginning with that high surrogate is
+	private volatile CharSet[][] alternatives;	// sets compiled by COMPILE, null until
+												// first compiled
+	private volatile int[] ranges;	// members as sorted pairs of inclusive bounds, null
+									// until first compiled into UTF-8 bytes
+
+	/* CHARS may include surrogates, which are left out. PAIRS is used without being
+	 * copied. */
+	CodePointSet(CharSet chars, long[][] pairs) {
+		this.chars = chars.complement().union(SURROGATE_CHARS).complement();
+		this.pairs = pairs;
+	}
+
+	/* Returns the set of the code points C for which bit C & 63 of BITS[C >> 6] is set,
+	 * BITS covering every code point. */
+	static CodePointSet of(long[] bits) {
+		int[] ranges = new int[16];
+		int n = 0;
+		for (int c = 0; c <= CharSet.MAX; c++) {
+			if ((bits[c >> 6] & (1L << c)) == 0)
+				continue;
+			if (n > 0 && ranges[n - 1] == c - 1) {
+				ranges[n - 1] = c;
+				continue;
+			}
+			if (n == ranges.length)
+				ranges = Arrays.copyOf(ranges, 2 * n);
+			ranges[n++] = c;
+			ranges[n++] = c;
+		}
+
+		// the pairs of each high surrogate are the next 1024 code points, 16 elements
+		long[][] pairs = new long[SURROGATES][];
+		for (int h = 0; h < SURROGATES; h++) {
+			int first = (Character.MIN_SUPPLEMENTARY_CODE_POINT + h * SURROGATES) >> 6;
+			long[] lows = Arrays.copyOfRange(bits, first, first + SURROGATES / 64);
+			if (!isEmpty(lows))
+				pairs[h] = lows;
+		}
+		return new CodePointSet(new CharSet(Arrays.copyOf(ranges, n)), pairs);
+	}
+
+	/* Returns the set of the code points that are in this set or in OTHER. */
+	CodePointSet union(CodePointSet other) {
+		long[][] both = new long[SURROGATES][];
+		for (int h = 0; h < SURROGATES; h++) {
+			if (pairs[h] == null || other.pairs[h] == null) {
+				both[h] = pairs[h] != null ? pairs[h] : other.pairs[h];
+				continue;
+			}
+			both[h] = new long[SURROGATES / 64];
+			for (int i = 0; i < both[h].length; i++)
+				both[h][i] = pairs[h][i] | other.pairs[h][i];
+		}
+		return new CodePointSet(chars.union(other.chars), both);
+	}
+
+	/* Returns the set of the code points that are not in this set. */
+	CodePointSet complement() {
+		long[][] others = new long[SURROGATES][];
+		for (int h = 0; h < SURROGATES; h++) {
+			others[h] = new long[SURROGATES / 64];
+			for (int i = 0; i < others[h].length; i++)
+				others[h][i] = pairs[h] == null ? -1 : ~pairs[h][i];
+			if (isEmpty(others[h]))
+				others[h] = null;
+		}
+		return new CodePointSet(chars.complement(), others);
+	}
+
+	/* Returns the set of the code points equal ignoring case to a member of this set,
+	 * as FOLDING folds them, which is this set if there are no others. Only members
+	 * below 0x10000 are folded. */
+	CodePointSet fold(CaseFolding folding) {
+		CharSet folded = folding.fold(chars);
+		return folded == chars ? this : new CodePointSet(folded, pairs);
+	}
+
+	/* Returns true if CODEPOINT is a member of this set. */
+	boolean contains(int codePoint) {
+		if (codePoint < Character.MIN_SUPPLEMENTARY_CODE_POINT)
+			return chars.contains(codePoint);
+		long[] lows = pairs[Character.highSurrogate(codePoint) - Character.MIN_HIGH_SURROGATE];
+		int l = Character.lowSurrogate(codePoint) - Character.MIN_LOW_SURROGATE;
+		return lows != null && (lows[l >> 6] & (1L << l)) != 0;
+	}
+
+	/* Returns the members below 0x10000. */
+	CharSet getChars() {
+		return chars;
+	}
+
+	/* Returns true if some members are above 0xFFFF, so that a match is not always a
+	 * single character. */
+	boolean hasPairs() {
+		for (long[] lows : pairs) {
+			if (lows != null)
+				return true;
+		}
+		return false;
+	}
+
+	/* Compiles the members into alternatives, the first of which is a single SET of
+	 * CHARS, and each of the others a SET of high surrogates followed by a SET of the
+	 * low surrogates that can follow all of them. The alternatives never begin with the
+	 * same character, so their order does not matter. */
+	void compile(Program prog) {
+		if (prog.isUtf8()) {
+			int[] members = ranges;
+			if (members == null) {
+				members = ranges();
+				ranges = members;
+			}
+			prog.emitCodePoints(members);
+			return;
+		}
+		CharSet[][] sets = alternatives;
+		if (sets == null) {
+			sets = alternatives();
+			alternatives = sets;
+		}
+
+		// as for ALTERNATION: SPLIT La, Lb;  La: a; JMP end;  Lb: ...  z; end:
+		int[] jumps = new int[sets.length - 1];
+		for (int i = 0; i < sets.length; i++) {
+			int split = -1;
+			if (i < jumps.length)
+				split = prog.emit(Program.SPLIT, prog.next() + 3, 0);
+			for (int j = 0; j < sets[i].length; j++) {
+				CharSet set = sets[i][prog.isReversed() ? sets[i].length - 1 - j : j];
+				prog.emit(Program.SET, prog.addSet(set));
+			}
+			if (i < jumps.length) {
+				jumps[i] = prog.emit(Program.JMP, 0);
+				prog.patch(split, 1, prog.next());
+			}
+		}
+		for (int jump : jumps)
+			prog.patch(jump, 0, prog.next());
+	}
+
+	/* Returns the sets of each alternative compiled by COMPILE, in the order they match
+	 * the text forwards. */
+	private CharSet[][] alternatives() {
+		// high surrogates grouped by the low surrogates that can follow them
+		LinkedHashMap<LongBuffer, ArrayList<Integer>> groups =
+			new LinkedHashMap<LongBuffer, ArrayList<Integer>>();
+		for (int h = 0; h < SURROGATES; h++) {
+			if (pairs[h] == null)
+				continue;
+			ArrayList<Integer> highs = groups.get(LongBuffer.wrap(pairs[h]));
+			if (highs == null) {
+				highs = new ArrayList<Integer>();
+				groups.put(LongBuffer.wrap(pairs[h]), highs);
+			}
+			highs.add(Character.MIN_HIGH_SURROGATE + h);
+		}
+
+		ArrayList<CharSet[]> sets = new ArrayList<CharSet[]>();
+		if (chars.getRanges().length > 0 || groups.isEmpty())
+			sets.add(new CharSet[] {chars});
+		for (LongBuffer lows : groups.keySet()) {
+			sets.add(new CharSet[] {new CharSet(ranges(groups.get(lows))),
+				new CharSet(ranges(lows, Character.MIN_LOW_SURROGATE))});
+		}
+		return sets.toArray(new CharSet[sets.size()][]);
+	}
+
+	/* Returns the members as sorted pairs of inclusive bounds. */
+	private int[] ranges() {
+		int[] chars = this.chars.getRanges();
+		int[] result = Arrays.copyOf(chars, chars.length + 16);
+		int n = chars.length;
+		for (int h = 0; h < SURROGATES; h++) {
+			if (pairs[h] == null)
+				continue;
+			int first = Character.MIN_SUPPLEMENTARY_CODE_POINT + h * SURROGATES;
+			for (int b = 0; b < SURROGATES; b++) {
+				// skip the words with no member
+				if (pairs[h][b >> 6] == 0) {
+					b |= 63;
+					continue;
+				}
+				if ((pairs[h][b >> 6] & (1L << b)) == 0)
+					continue;
+				if (n > 0 && result[n - 1] == first + b - 1) {
+					result[n - 1]++;
+					continue;
+				}
+				if (n + 2 > result.length)
+					result = Arrays.copyOf(result, 2 * result.length);
+				result[n++] = first + b;
+				result[n++] = first + b;
+			}
+		}
+		return Arrays.copyOf(result, n);
+	}
+
+	/* Returns the ranges of the characters FIRST + B for the bits B set in BITS. */
+	private static int[] ranges(LongBuffer bits, int first) {
+		int[] ranges = new int[2 * SURROGATES];
+		int n = 0;
+		for (int b = 0; b < SURROGATES; b++) {
+			if ((bits.get(b >> 6) & (1L << b)) == 0)
+				continue;
+			if (n > 0 && ranges[n - 1] == first + b - 1) {
+				ranges[n - 1]++;
+			} else {
+				ranges[n++] = first + b;
+				ranges[n++] = first + b;
+			}
+		}
+		return Arrays.copyOf(ranges, n);
+	}
+
+	/* Returns the ranges of the sorted characters CHARS. */
+	private static int[] ranges(ArrayList<Integer> chars) {
+		int[] ranges = new int[2 * chars.size()];
+		int n = 0;
+		for (int c : chars) {
+			if (n > 0 && ranges[n - 1] == c - 1) {
+				ranges[n - 1] = c;
+			} else {
+				ranges[n++] = c;
+				ranges[n++] = c;
+			}
+		}
+		return Arrays.copyOf(ranges, n);
+	}
+
+	private static boolean isEmpty(long[] bits) {
+		for (long b : bits) {
+			if (b != 0)
+				return false;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,110 @@
+package regex;
+
+import java.nio.CharBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.function.IntUnaryOperator;
+
+/* Maps every code point, supplementary ones included, to a value below 65536 in three
+ * lookups: the top bits of the code point select a block of the middle stage, the
+ * middle bits select a block of 64 values in DATA, and the low bits select the value.
+ * Blocks that are alike are stored once, so a table of the general category of every
+ * code point takes a few hundred kilobytes instead of over two megabytes. */
+final class CodePointTrie {
+	private static final int SIZE = Character.MAX_CODE_POINT + 1;
+	private static final int DATA_BITS = 6;		// code points per block of DATA is 2^6
+	private static final int MIDDLE_BITS = 4;	// blocks of DATA per block of MIDDLE is 2^4
+	private static final int TOP_SHIFT = DATA_BITS + MIDDLE_BITS;
+
+	private final char[] top;		// index in MIDDLE of the block of each 1024 code points
+	private final char[] middle;	// number of the block of DATA of each 64 code points
+	private final char[] data;
+
+	private CodePointTrie(char[] top, char[] middle, char[] data) {
+		this.top = top;
+		this.middle = middle;
+		this.data = data;
+	}
+
+	/* Returns a trie mapping each code point C to VALUE.applyAsInt(C), which must be
+	 * between 0 and 65535. */
+	static CodePointTrie build(IntUnaryOperator value) {
+		Stage dataStage = new Stage(1 << DATA_BITS);
+		Stage middleStage = new Stage(1 << MIDDLE_BITS);
+		char[] top = new char[SIZE >> TOP_SHIFT];
+		char[] block = new char[1 << DATA_BITS];
+		char[] blocks = new char[1 << MIDDLE_BITS];
+		for (int t = 0; t < top.length; t++) {
+			for (int m = 0; m < blocks.length; m++) {
+				int first = (t << TOP_SHIFT) + (m << DATA_BITS);
+				for (int i = 0; i < block.length; i++)
+					block[i] = (char)value.applyAsInt(first + i);
+				blocks[m] = (char)(dataStage.add(block) >> DATA_BITS);
+			}
+			top[t] = (char)middleStage.add(blocks);
+		}
+		return new CodePointTrie(top, middleStage.toArray(), dataStage.toArray());
+	}
+
+	/* Returns a bitmap of the code points whose value V has bit V set in VALUES: bit
+	 * C & 63 of element C >> 6 is set for each such code point C. The bits of each
+	 * distinct block of DATA are only computed once. */
+	long[] members(long[] values) {
+		long[] blockBits = new long[data.length >> DATA_BITS];
+		boolean[] done = new boolean[blockBits.length];
+		long[] bits = new long[SIZE >> DATA_BITS];
+		for (int i = 0; i < bits.length; i++) {
+			int block = middle[top[i >> MIDDLE_BITS] + (i & ((1 << MIDDLE_BITS) - 1))];
+			if (!done[block]) {
+				for (int c = 0; c < 1 << DATA_BITS; c++) {
+					int value = data[(block << DATA_BITS) + c];
+					if (value >> 6 < values.length && (values[value >> 6] & (1L << value)) != 0)
+						blockBits[block] |= 1L << c;
+				}
+				done[block] = true;
+			}
+			bits[i] = blockBits[block];
+		}
+		return bits;
+	}
+
+	/* Returns the value of CODEPOINT, which must be between 0 and MAX_CODE_POINT. */
+	int get(int codePoint) {
+		int block = middle[top[codePoint >> TOP_SHIFT]
+			+ ((codePoint >> DATA_BITS) & ((1 << MIDDLE_BITS) - 1))];
+		return data[(block << DATA_BITS) + (codePoint & ((1 << DATA_BITS) - 1))];
+	}
+
+	/* Blocks of one stage of the trie being built, each stored once. */
+	private static final class Stage {
+		private char[] values = new char[256];
+		private int size;
+		private HashMap<CharBuffer, Integer> offsets = new HashMap<CharBuffer, Integer>();
+		private final int blockSize;
+
+		Stage(int blockSize) {
+			this.blockSize = blockSize;
+		}
+
+		/* Returns the offset of a block equal to BLOCK, adding a copy of it if there is
+		 * none. */
+		int add(char[] block) {
+			// runs of alike blocks are common, such as those of unassigned code points
+			if (size > 0 && Arrays.equals(block, 0, blockSize, values, size - blockSize, size))
+				return size - blockSize;
+			Integer offset = offsets.get(CharBuffer.wrap(block));
+			if (offset != null)
+				return offset;
+			if (size + blockSize > values.length)
+				values = Arrays.copyOf(values, 2 * values.length);
+			System.arraycopy(block, 0, values, size, blockSize);
+			offsets.put(CharBuffer.wrap(block.clone()), size);
+			size += blockSize;
+			return size - blockSize;
+		}
+
+		char[] toArray() {
+			return Arrays.copyOf(values, size);
+		}
+	}
+}
@@ -0,0 +1,16 @@
+package regex;
+
+/* Base class of the classes generated by BYTECODECOMPILER, each of which matches one
+ * pattern made of literals and single character matchers with straight-line code. */
+abstract class CompiledPattern {
+	final CharSet[] sets;	// sets of the program, read by the generated code for those
+							// too large to be tested with a few comparisons
+
+	CompiledPattern(CharSet[] sets) {
+		this.sets = sets;
+	}
+
+	/* Returns the index up to which the pattern matches TEXT beginning exactly at START,
+	 * without reading at or after index END, or -1 if it does not match there. */
+	abstract int match(CharSequence text, int start, int end);
+}
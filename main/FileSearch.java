@@ -0,0 +1,233 @@
+package regex;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/* Searches a file for a given regular expression pattern. The file is mapped into
+ * memory and its bytes are decoded as the search reads them, so it is never copied onto
+ * the heap and may be larger than 2 GB. Matches are reported with the byte offsets at
+ * which they begin and end in the file.
+ *
+ * US-ASCII and ISO-8859-1 files are read in place. UTF-8 files are decoded a window at
+ * a time into a buffer that only grows while a match could be longer than it. Bytes
+ * that are not valid in the charset are read as U+FFFD. */
+public class FileSearch extends ChunkedSearch implements AutoCloseable {
+	private static final int WINDOW = 1 << 20;				// characters in a window at first
+	private static final int MAX_WINDOW = Integer.MAX_VALUE - 8;
+	private static final int MAX_UTF8_WINDOW = MAX_WINDOW / 3;	// keeps the byte offsets
+																// of a window in an int
+
+	private FileChannel channel;
+	private Arena arena;				// owns the mapping of FILE
+	private MemorySegment file;
+	private boolean utf8;
+	private boolean ascii;				// true if bytes above 0x7F are not valid
+	private int capacity;				// characters the window may hold
+	private long base;					// offset of the first byte of the window
+	private CharSequence window;
+
+	// decoded window of a UTF-8 file
+	private char[] chars;
+	private Text.ArrayText view;		// view of CHARS, set again after each decode
+	private int[] offsets;				// offset of each character of CHARS from BASE,
+										// followed by the offset of the end of the window
+	private int length;					// number of characters of CHARS in use
+
+	public FileSearch(Regex r, Path path, Charset charset) throws IOException {
+		this(r, path, charset, WINDOW);
+	}
+
+	/* Creates a FileSearch whose window holds CAPACITY characters at first. */
+	FileSearch(Regex r, Path path, Charset charset, int capacity) throws IOException {
+		super(r);
+		if (charset.equals(StandardCharsets.UTF_8))
+			utf8 = true;
+		else if (charset.equals(StandardCharsets.US_ASCII))
+			ascii = true;
+		else if (!charset.equals(StandardCharsets.ISO_8859_1))
+			throw new IllegalArgumentException("unsupported charset " + charset);
+		this.capacity = Math.max(capacity, 2);	// room for a surrogate pair
+
+		channel = FileChannel.open(path, StandardOpenOption.READ);
+		arena = Arena.ofShared();
+		try {
+			file = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size(), arena);
+		} catch (IOException | RuntimeException e) {
+			arena.close();
+			channel.close();
+			throw e;
+		}
+
+		base = 0;
+		if (utf8) {
+			chars = new char[this.capacity];
+			offsets = new int[this.capacity + 1];
+			view = new Text.ArrayText(chars, 0, 0);
+			length = 0;
+			decode();
+		} else {
+			window = new ByteText(file, base, (int)Math.min(this.capacity, file.byteSize()),
+				ascii);
+		}
+	}
+
+	CharSequence window() {
+		return window;
+	}
+
+	boolean atEnd() {
+		return offset(window.length()) == file.byteSize();
+	}
+
+	long offset(int i) {
+		return utf8 ? base + offsets[i] : base + i;
+	}
+
+	void slide(int from) {
+		if (from == 0) {
+			int max = utf8 ? MAX_UTF8_WINDOW : MAX_WINDOW;
+			if (capacity >= max)
+				throw new IllegalStateException("match longer than " + max + " characters");
+			capacity = (int)Math.min(2L * capacity, max);
+		}
+
+		if (!utf8) {
+			base += from;
+			window = new ByteText(file, base, (int)Math.min(capacity, file.byteSize() - base),
+				ascii);
+			return;
+		}
+
+		int delta = offsets[from];
+		length -= from;
+		if (capacity > chars.length) {
+			char[] newChars = new char[capacity];
+			int[] newOffsets = new int[capacity + 1];
+			System.arraycopy(chars, from, newChars, 0, length);
+			System.arraycopy(offsets, from, newOffsets, 0, length + 1);
+			chars = newChars;
+			offsets = newOffsets;
+		} else {
+			System.arraycopy(chars, from, chars, 0, length);
+			System.arraycopy(offsets, from, offsets, 0, length + 1);
+		}
+		for (int i = 0; i <= length; i++)
+			offsets[i] -= delta;
+		base += delta;
+		decode();
+	}
+
+	/* Decodes UTF-8 bytes after the window into CHARS until it is full or the end of the
+	 * file is reached. */
+	private void decode() {
+		long size = file.byteSize();
+		long p = base + offsets[length];
+		while (length < chars.length - 1 && p < size) {
+			int b = file.get(ValueLayout.JAVA_BYTE, p) & 0xFF;
+			int n;			// length of the sequence
+			int c;			// code point it encodes
+			int min;		// smallest code point that needs N bytes
+			if (b < 0x80) {
+				n = 1;
+				c = b;
+				min = 0;
+			} else if (b >= 0xC0 && b < 0xE0) {
+				n = 2;
+				c = b & 0x1F;
+				min = 0x80;
+			} else if (b >= 0xE0 && b < 0xF0) {
+				n = 3;
+				c = b & 0x0F;
+				min = 0x800;
+			} else if (b >= 0xF0 && b < 0xF8) {
+				n = 4;
+				c = b & 0x07;
+				min = 0x10000;
+			} else {
+				n = 0;
+				c = 0;
+				min = 0;
+			}
+
+			for (int i = 1; i < n; i++) {
+				int cont = p + i < size ? file.get(ValueLayout.JAVA_BYTE, p + i) & 0xFF : 0;
+				if ((cont & 0xC0) != 0x80) {
+					n = 0;
+					break;
+				}
+				c = (c << 6) | (cont & 0x3F);
+			}
+			if (n == 0 || c < min || c > Character.MAX_CODE_POINT
+					|| (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE)) {
+				n = 1;
+				c = 0xFFFD;
+			}
+
+			offsets[length] = (int)(p - base);
+			if (c >= Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+				chars[length++] = Character.highSurrogate(c);
+				offsets[length] = (int)(p - base);
+				chars[length++] = Character.lowSurrogate(c);
+			} else {
+				chars[length++] = (char)c;
+			}
+			p += n;
+		}
+		offsets[length] = (int)(p - base);
+		view.set(chars, 0, length);
+		window = view;
+	}
+
+	/* Unmaps the file and closes it. */
+	public void close() throws IOException {
+		arena.close();
+		channel.close();
+	}
+
+	/* CharSequence over bytes of a memory segment, each read as one character. */
+	private static final class ByteText implements CharSequence {
+		private final MemorySegment segment;
+		private final long offset;
+		private final int length;
+		private final boolean ascii;	// true if bytes above 0x7F are read as U+FFFD
+
+		ByteText(MemorySegment segment, long offset, int length, boolean ascii) {
+			this.segment = segment;
+			this.offset = offset;
+			this.length = length;
+			this.ascii = ascii;
+		}
+
+		public int length() {
+			return length;
+		}
+
+		public char charAt(int i) {
+			if (i < 0 || i >= length)
+				throw new IndexOutOfBoundsException("index " + i + ", length " + length);
+			byte b = segment.get(ValueLayout.JAVA_BYTE, offset + i);
+			return ascii && b < 0 ? '\uFFFD' : (char)(b & 0xFF);
+		}
+
+		public CharSequence subSequence(int start, int end) {
+			if (start < 0 || end > length || start > end)
+				throw new IndexOutOfBoundsException("start " + start + ", end " + end
+					+ ", length " + length);
+			return new ByteText(segment, offset + start, end - start, ascii);
+		}
+
+		public String toString() {
+			StringBuilder s = new StringBuilder(length);
+			for (int i = 0; i < length; i++)
+				s.append(charAt(i));
+			return s.toString();
+		}
+	}
+}
@@ -0,0 +1,52 @@
+package regex;
+
+/* Finds occurrences of a fixed sequence of characters using the Boyer-Moore-Horspool
+ * algorithm. Used by REGEX to skip over text that cannot begin a match when the pattern
+ * starts with a LITERAL. */
+class Horspool {
+	private char[] chars;	// characters to look for
+	private int[] shift;	// distance to move the window, indexed by the low byte of the
+							// character aligned with the end of the window
+
+	Horspool(char[] chars) {
+		if (chars.length == 0)
+			throw new IllegalArgumentException("empty literal");
+		this.chars = chars;
+		int last = chars.length - 1;
+
+		// Characters that share a low byte share a slot, so each slot keeps the
+		// smallest shift of all the characters mapped to it.
+		shift = new int[256];
+		for (int i = 0; i < shift.length; i++)
+			shift[i] = chars.length;
+		for (int i = 0; i < last; i++)
+			shift[chars[i] & 0xFF] = last - i;
+	}
+
+	/* Returns the number of characters looked for. */
+	int length() {
+		return chars.length;
+	}
+
+	/* Returns the smallest index at or after FROM at which CHARS occurs in TEXT without
+	 * extending past index END, or -1 if there is no such index. */
+	int next(CharSequence text, int from, int end) {
+		int last = chars.length - 1;
+		char lastChar = chars[last];
+		int i = from;
+
+		while (i + last < end) {
+			char c = Text.charAt(text, i + last);
+			if (c == lastChar) {
+				int j = last - 1;
+				while (j >= 0 && Text.charAt(text, i + j) == chars[j])
+					j--;
+				if (j < 0)
+					return i;
+			}
+			i += shift[c & 0xFF];
+		}
+
+		return -1;
+	}
+}
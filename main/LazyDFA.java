@@ -0,0 +1,422 @@
+package regex;
+
+import java.util.*;
+
+/* Runs a PROGRAM as a deterministic automaton whose states are built the first time the
+ * text needs them. Each state stands for an ordered list of PIKEVM threads, so once a
+ * transition is known, stepping over a character costs a single table lookup instead
+ * of one step per thread.
+ *
+ * Characters that no instruction of the program tells apart share a class, and the
+ * transitions of a state are indexed by class. The states are kept in a cache whose
+ * estimated size in bytes is bounded. When the cache is full it is cleared and built
+ * again from the state being run, so that memory stays bounded even for patterns whose
+ * full DFA would be huge. A search that has to clear the cache too often gives up, and
+ * the caller falls back to PIKEVM.
+ *
+ * A LAZYDFA can be shared by threads. Following transitions that are already built
+ * takes no lock; building a state is done while holding the lock of the LAZYDFA. */
+class LazyDFA {
+	static final int NO_MATCH = -1;	// returned when the text does not match
+	static final int GAVE_UP = -2;	// returned when the cache was cleared too often
+
+	// kinds of start state
+	private static final int UNANCHORED = 0;	// a thread is started at every position
+	private static final int ANCHORED = 1;		// a thread is started at the first position
+	private static final int ANYWHERE = 2;		// a thread is started at every instruction
+
+	private static final int MAX_RESETS = 3;		// cache clears allowed in one search
+	private static final int STATE_OVERHEAD = 96;	// estimated bytes used by a state
+													// besides its arrays
+
+	private int[] code;
+	private CharSet[] sets;
+	private boolean longest;		// if true, a MATCH cuts nothing: threads after it are kept
+									// and new ones are still started, so that every match
+									// end is seen and not only the preferred one
+	private int[] classStarts;		// smallest character of each class, in order
+	private int[] latin1Classes;	// class of each character below 256
+	private volatile int cacheSize;	// bytes the states may use
+	private volatile Cache cache;
+
+	// scratch space used while building a state, guarded by the lock of this LAZYDFA
+	private ThreadList threads;
+	private int[] stack;
+
+	/* Creates a DFA running PROG. If LONGEST is false, states follow the priorities of
+	 * PIKEVM and a search reports the end of the match that PIKEVM would report. If
+	 * LONGEST is true, a search reports the furthest index at which any match ends. */
+	LazyDFA(Program prog, boolean longest, int cacheSize) {
+		code = prog.getCode();
+		sets = prog.getSets();
+		this.longest = longest;
+		this.cacheSize = cacheSize;
+		cache = new Cache();
+		threads = new ThreadList(code.length);
+		stack = new int[2 * code.length + 1];
+		computeClasses();
+	}
+
+	/* Sets the bytes the states may use to SIZE, discarding the states built so far. */
+	synchronized void setCacheSize(int size) {
+		cacheSize = size;
+		cache = new Cache();
+	}
+
+	/* Runs forward from FROM, never reading at or after END. If ANCHORED is true, only
+	 * a match beginning at FROM is considered; otherwise the leftmost match beginning at
+	 * or after FROM and before index LIMIT, which must be greater than FROM, is. Returns
+	 * the index at which that match ends, NO_MATCH, or GAVE_UP. Unless the search gives
+	 * up, HITEND[0] is set to true if the result could change if the text continued past
+	 * END, and to false otherwise. HITEND may be null. */
+	int searchForward(CharSequence text, int from, int end, int limit, boolean anchored,
+			boolean[] hitEnd) {
+		Cache current = cache;
+		int resets = 0;
+		State s = start(anchored ? ANCHORED : UNANCHORED);
+		if (s == null)
+			return GAVE_UP;
+
+		int matchEnd = NO_MATCH;
+		for (int pos = from; ; pos++) {
+			if (s.match)
+				matchEnd = pos;
+			if (s.dead || pos == end)
+				break;
+			// no thread may begin at LIMIT or after it
+			if (pos == limit - 1) {
+				s = withoutRestart(s);
+				if (s == null)
+					return GAVE_UP;
+			}
+
+			int cls = classOf(Text.charAt(text, pos));
+			State next = s.next[cls];
+			if (next == null) {
+				next = transition(s, cls);
+				if (next == null)
+					return GAVE_UP;
+				if (cache != current) {
+					current = cache;
+					if (++resets > MAX_RESETS)
+						return GAVE_UP;
+				}
+			}
+			s = next;
+		}
+		if (hitEnd != null)
+			hitEnd[0] = s.waiting;
+		return matchEnd;
+	}
+
+	/* Runs forward from FROM, never reading at or after END, and sets FOUND[i] to true
+	 * for every pattern number i of which a match begins and ends within the text. Stops
+	 * once every element of FOUND is true. Returns the number of elements set to true,
+	 * or GAVE_UP, in which case some of them may already have been set. The DFA must be
+	 * LONGEST. */
+	int searchSet(CharSequence text, int from, int end, boolean[] found) {
+		Cache current = cache;
+		int resets = 0;
+		State s = start(UNANCHORED);
+		if (s == null)
+			return GAVE_UP;
+
+		int count = 0;
+		for (int pos = from; ; pos++) {
+			if (s.match) {
+				for (int i : s.matches) {
+					if (!found[i]) {
+						found[i] = true;
+						count++;
+					}
+				}
+				if (count == found.length)
+					break;
+			}
+			if (pos == end)
+				break;
+
+			int cls = classOf(Text.charAt(text, pos));
+			State next = s.next[cls];
+			if (next == null) {
+				next = transition(s, cls);
+				if (next == null)
+					return GAVE_UP;
+				if (cache != current) {
+					current = cache;
+					if (++resets > MAX_RESETS)
+						return GAVE_UP;
+				}
+			}
+			s = next;
+		}
+		return count;
+	}
+
+	/* Runs backward from END, never reading before FROM. Returns the smallest index
+	 * START at or after FROM such that the text from START to END is matched, NO_MATCH,
+	 * or GAVE_UP. The program must have been compiled reversed. */
+	int searchReverse(CharSequence text, int from, int end) {
+		return runReverse(text, from, end, ANCHORED);
+	}
+
+	/* Runs backward from END, never reading before FROM. Returns the smallest index
+	 * START at or after FROM such that the text from START to END is the beginning of
+	 * some match, which more text after END could complete, or GAVE_UP. The program
+	 * must have been compiled reversed, and END itself is always such an index. */
+	int searchWaiting(CharSequence text, int from, int end) {
+		return runReverse(text, from, end, ANYWHERE);
+	}
+
+	private int runReverse(CharSequence text, int from, int end, int kind) {
+		Cache current = cache;
+		int resets = 0;
+		State s = start(kind);
+		if (s == null)
+			return GAVE_UP;
+
+		int start = NO_MATCH;
+		for (int pos = end; ; pos--) {
+			if (s.match)
+				start = pos;
+			if (s.dead || pos == from)
+				break;
+
+			int cls = classOf(Text.charAt(text, pos - 1));
+			State next = s.next[cls];
+			if (next == null) {
+				next = transition(s, cls);
+				if (next == null)
+					return GAVE_UP;
+				if (cache != current) {
+					current = cache;
+					if (++resets > MAX_RESETS)
+						return GAVE_UP;
+				}
+			}
+			s = next;
+		}
+		return start;
+	}
+
+	/* Returns the state in which a search begins, or null if it does not fit in the
+	 * cache. */
+	private State start(int kind) {
+		Cache current = cache;
+		State s = current.starts[kind];
+		if (s != null)
+			return s;
+
+		synchronized (this) {
+			threads.clear();
+			if (kind == ANYWHERE) {
+				// Running a reversed program from any instruction, a MATCH is reached
+				// wherever a match of the forward program could begin.
+				for (int pc = 0; pc < code.length; pc += Program.length(code[pc]))
+					threads.addClosure(code, pc, 0, stack);
+			} else {
+				threads.addClosure(code, 0, 0, stack);
+			}
+			s = intern(kind == UNANCHORED);
+			if (s != null)
+				cache.starts[kind] = s;
+			return s;
+		}
+	}
+
+	/* Returns the state holding the threads of S that starts no new thread, or null if
+	 * it does not fit in the cache. */
+	private State withoutRestart(State s) {
+		if (!s.restart)
+			return s;
+		State twin = s.twin;
+		if (twin != null)
+			return twin;
+
+		synchronized (this) {
+			if (s.twin != null)		// built by another thread in the meantime
+				return s.twin;
+			threads.clear();
+			for (int pc : s.pcs)
+				threads.add(pc, 0);
+			twin = intern(false);
+			if (twin != null)
+				s.twin = twin;
+			return twin;
+		}
+	}
+
+	/* Builds the state that S moves to on a character of class CLS and records it as
+	 * the transition of S. Returns null if the state does not fit in the cache. */
+	private State transition(State s, int cls) {
+		synchronized (this) {
+			if (s.next[cls] != null)	// built by another thread in the meantime
+				return s.next[cls];
+
+			char c = (char)classStarts[cls];
+			threads.clear();
+			for (int pc : s.pcs) {
+				switch (code[pc]) {
+					case Program.CHAR:
+						if (c == code[pc + 1])
+							threads.addClosure(code, pc + 2, 0, stack);
+						break;
+					case Program.SET:
+						if (sets[code[pc + 1]].contains(c))
+							threads.addClosure(code, pc + 2, 0, stack);
+						break;
+				}
+			}
+
+			// As in PIKEVM, new threads stop being started once a match has been seen,
+			// and they have lower priority than every thread already running.
+			boolean restart = s.restart && (longest || !s.match);
+			if (restart)
+				threads.addClosure(code, 0, 0, stack);
+
+			State next = intern(restart);
+			if (next != null)
+				s.next[cls] = next;
+			return next;
+		}
+	}
+
+	/* Returns the cached state holding the threads in THREADS, creating it if needed.
+	 * Clears the cache first if the new state does not fit. Returns null if the state
+	 * would not fit even in an empty cache. Must be called holding the lock. */
+	private State intern(boolean restart) {
+		int[] pcs = new int[threads.size];
+		int[] matches = new int[threads.size];
+		int n = 0;
+		int m = 0;
+		for (int i = 0; i < threads.size; i++) {
+			int pc = threads.pcs[i];
+			int op = code[pc];
+			if (op == Program.CHAR || op == Program.SET) {
+				pcs[n++] = pc;
+			} else if (op == Program.MATCH) {
+				pcs[n++] = pc;
+				matches[m++] = code[pc + 1];
+				// threads with lower priority can no longer affect the result
+				if (!longest)
+					break;
+			}
+		}
+
+		State s = new State(Arrays.copyOf(pcs, n), restart, Arrays.copyOf(matches, m),
+			classStarts.length);
+		State found = cache.states.get(s);
+		if (found != null)
+			return found;
+
+		int bytes = STATE_OVERHEAD + 4 * n + 4 * m + 4 * classStarts.length;
+		if (bytes > cacheSize)
+			return null;
+		if (cache.bytes + bytes > cacheSize)
+			cache = new Cache();
+		cache.states.put(s, s);
+		cache.bytes += bytes;
+		return s;
+	}
+
+	private int classOf(char c) {
+		if (c < 256)
+			return latin1Classes[c];
+
+		// find the last class whose smallest character is <= C
+		int lo = 0;
+		int hi = classStarts.length - 1;
+		while (lo < hi) {
+			int mid = (lo + hi + 1) >>> 1;
+			if (classStarts[mid] <= c)
+				lo = mid;
+			else
+				hi = mid - 1;
+		}
+		return lo;
+	}
+
+	/* Splits the characters into classes at every bound of a CHAR or SET instruction. */
+	private void computeClasses() {
+		// sorted without boxing, since the sets of Unicode properties have many ranges
+		int[] starts = new int[16];
+		int n = 0;
+		starts[n++] = 0;
+		for (int pc = 0; pc < code.length; pc += Program.length(code[pc])) {
+			int[] ranges;
+			if (code[pc] == Program.CHAR)
+				ranges = new int[] {code[pc + 1], code[pc + 1]};
+			else if (code[pc] == Program.SET)
+				ranges = sets[code[pc + 1]].getRanges();
+			else
+				continue;
+			if (n + ranges.length > starts.length)
+				starts = Arrays.copyOf(starts, Math.max(2 * starts.length, n + ranges.length));
+			for (int i = 0; i < ranges.length; i += 2) {
+				starts[n++] = ranges[i];
+				if (ranges[i + 1] < CharSet.MAX)
+					starts[n++] = ranges[i + 1] + 1;
+			}
+		}
+		Arrays.sort(starts, 0, n);
+
+		int distinct = 0;
+		for (int i = 0; i < n; i++) {
+			if (distinct == 0 || starts[i] != starts[distinct - 1])
+				starts[distinct++] = starts[i];
+		}
+		classStarts = Arrays.copyOf(starts, distinct);
+
+		latin1Classes = new int[256];
+		for (int c = 0; c < 256; c++) {
+			int cls = 0;
+			while (cls + 1 < classStarts.length && classStarts[cls + 1] <= c)
+				cls++;
+			latin1Classes[c] = cls;
+		}
+	}
+
+	/* One state of the DFA. All fields but the links to other states are final, so a
+	 * state that another thread reads from a transition array or TWIN is seen fully
+	 * built even without a lock. */
+	private static final class State {
+		final int[] pcs;		// CHAR, SET and MATCH instructions of the threads, in order
+		final boolean restart;	// true if a new thread is started at every position
+		final int[] matches;	// numbers of the patterns of the MATCH instructions in PCS
+		final boolean match;	// true if a match ends at the current position
+		final boolean dead;		// true if no match can be found from this state
+		final boolean waiting;	// true if a thread is waiting for the next character
+		final State[] next;		// transition for each class, null until built
+		State twin;				// same threads without RESTART, null until built
+		private final int hash;
+
+		State(int[] pcs, boolean restart, int[] matches, int classes) {
+			this.pcs = pcs;
+			this.restart = restart;
+			this.matches = matches;
+			match = matches.length > 0;
+			dead = pcs.length == 0 && !restart;
+			waiting = restart || pcs.length > matches.length;
+			next = new State[classes];
+			hash = 31 * Arrays.hashCode(pcs) + (restart ? 1 : 0);
+		}
+
+		public boolean equals(Object o) {
+			if (!(o instanceof State))
+				return false;
+			State other = (State)o;
+			return restart == other.restart && Arrays.equals(pcs, other.pcs);
+		}
+
+		public int hashCode() {
+			return hash;
+		}
+	}
+
+	/* The states built since the cache was last cleared. */
+	private static class Cache {
+		HashMap<State, State> states = new HashMap<State, State>();
+		State[] starts = new State[3];	// start state of each kind
+		int bytes = 0;
+	}
+}
@@ -0,0 +1,137 @@
+package regex;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/* Finds every match of a pattern in a large text with several threads. The text is cut
+ * into segments that are searched in parallel, each one as if the search began at the
+ * start of the segment and only for matches beginning within it. A match may run past
+ * the end of its segment, in which case the search of the next segment may have begun at
+ * the wrong index. Its matches are then checked against a search from the right index
+ * until both find the same match, after which they find the same matches. The result is
+ * the one that calling SEARCH.FIND until it returns false would give. */
+public final class ParallelSearch {
+	private static final int MIN_SEGMENT = 1 << 16;	// characters searched by one task
+
+	private ParallelSearch() {
+	}
+
+	/* Returns the start and end indices of every match of R in TEXT, in the order in
+	 * which SEARCH.FIND finds them, as consecutive pairs. The segments are searched in the
+	 * common ForkJoinPool. */
+	public static int[] findAll(Regex r, CharSequence text) {
+		return findAll(r, text, ForkJoinPool.commonPool());
+	}
+
+	/* Like FINDALL, searching the segments in POOL. */
+	public static int[] findAll(Regex r, CharSequence text, ForkJoinPool pool) {
+		// several segments per thread, so that threads given the easier ones are not idle
+		int segments = 4 * pool.getParallelism();
+		return findAll(r, text, pool, Math.max(MIN_SEGMENT, text.length() / segments + 1));
+	}
+
+	/* Like FINDALL, with segments of SEGMENT characters. */
+	static int[] findAll(Regex r, CharSequence s, ForkJoinPool pool, int segment) {
+		CharSequence text = Text.wrap(s);
+		int end = text.length();
+		int count = Math.max(1, (int)(((long)end + segment - 1) / segment));
+		int[] starts = new int[count + 1];
+		for (int k = 0; k < count; k++)
+			starts[k] = k * segment;
+		starts[count] = end + 1;	// an empty match may begin at END
+
+		int[][] found = new int[count][];
+		pool.invoke(new SegmentTask(r, text, starts, found, 0, count));
+
+		int[] result = new int[16];
+		int n = 0;
+		int[] bounds = new int[2];
+		Scratch scratch = new Scratch();
+		int pos = 0;	// index at which the sequential search would go on
+		for (int k = 0; k < count; k++) {
+			int[] matches = found[k];
+			int i = 0;
+			// the last match of the segment before may have run into this one
+			while (pos > starts[k]) {
+				while (i < matches.length && matches[i] < pos)
+					i += 2;
+				/* the search of the segment went on from SEARCHED and found no match
+				 * before MATCHES[I]. If it got no further than POS, it finds what a
+				 * search from POS does from there on. */
+				int searched = i == 0 ? starts[k] : next(matches[i - 2], matches[i - 1]);
+				if (searched <= pos)
+					break;
+				if (pos > end || !r.search(text, 0, pos, end, starts[k + 1], bounds, scratch)) {
+					i = matches.length;
+					break;
+				}
+				result = append(result, n++, bounds[0]);
+				result = append(result, n++, bounds[1]);
+				pos = next(bounds[0], bounds[1]);
+			}
+
+			for (; i < matches.length; i += 2) {
+				result = append(result, n++, matches[i]);
+				result = append(result, n++, matches[i + 1]);
+				pos = next(matches[i], matches[i + 1]);
+			}
+		}
+		return Arrays.copyOf(result, n);
+	}
+
+	/* Returns the index at which the search goes on after a match from START to END. */
+	private static int next(int start, int end) {
+		// an empty match must not be found again at the same position
+		return end > start ? end : end + 1;
+	}
+
+	/* Stores VALUE in ARRAY at index N, growing ARRAY if needed. */
+	private static int[] append(int[] array, int n, int value) {
+		if (n == array.length)
+			array = Arrays.copyOf(array, 2 * array.length);
+		array[n] = value;
+		return array;
+	}
+
+	/* Searches segments LO to HI, splitting them between two tasks while there are
+	 * more than one. */
+	private static class SegmentTask extends RecursiveAction {
+		private Regex r;
+		private CharSequence text;
+		private int[] starts;	// index at which each segment begins
+		private int[][] found;	// start and end indices of the matches of each segment
+		private int lo, hi;
+
+		SegmentTask(Regex r, CharSequence text, int[] starts, int[][] found, int lo, int hi) {
+			this.r = r;
+			this.text = text;
+			this.starts = starts;
+			this.found = found;
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		protected void compute() {
+			if (hi - lo > 1) {
+				int mid = (lo + hi) >>> 1;
+				invokeAll(new SegmentTask(r, text, starts, found, lo, mid),
+					new SegmentTask(r, text, starts, found, mid, hi));
+				return;
+			}
+
+			int end = text.length();
+			int[] matches = new int[16];
+			int n = 0;
+			int[] bounds = new int[2];
+			Scratch scratch = new Scratch();	// kept by the searches of the segment
+			int pos = starts[lo];
+			while (pos <= end && r.search(text, 0, pos, end, starts[lo + 1], bounds, scratch)) {
+				matches = append(matches, n++, bounds[0]);
+				matches = append(matches, n++, bounds[1]);
+				pos = next(bounds[0], bounds[1]);
+			}
+			found[lo] = Arrays.copyOf(matches, n);
+		}
+	}
+}
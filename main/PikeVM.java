@@ -0,0 +1,279 @@
+package regex;
+
+import java.util.Arrays;
+
+/* Runs a PROGRAM over a text by simulating all of its threads in lock step, so that
+ * every text character is examined once per instruction at most. Matching takes
+ * O(program size * text length) time whatever the pattern.
+ *
+ * Threads are kept in priority order: a thread created by the first branch of a SPLIT
+ * comes before the one created by the second, and threads that began at an earlier
+ * position come before those that began later. The match reported is the one found by
+ * the highest priority thread at the leftmost position, which is the same match a
+ * backtracking engine that tries alternatives in order would report. */
+class PikeVM {
+	private Program prog;
+	private int[] code;
+	private CharSet[] sets;
+	private boolean assertions;	// true if CODE has ASSERT instructions
+	private int width;			// capture slots of each thread, 0 if CODE has no SAVE
+								// instructions
+
+	PikeVM(Program prog) {
+		this.prog = prog;
+		code = prog.getCode();
+		sets = prog.getSets();
+		assertions = prog.hasAssertions();
+		for (int pc = 0; pc < code.length; pc += Program.length(code[pc])) {
+			if (code[pc] == Program.SAVE)
+				width = Math.max(width, code[pc + 1] + 1);
+		}
+	}
+
+	/* The threads of a run of a PIKEVM and the space it needs besides them, which a
+	 * caller may keep for the next run of the same PIKEVM so that runs allocate
+	 * nothing. Only one run at a time may use them. */
+	static final class Threads {
+		private final PikeVM vm;		// the engine whose runs may use them
+		private final ThreadList curr;
+		private final ThreadList next;
+		private final int[] stack;
+		private final int[] caps;		// capture slots of the thread being stepped
+		private final int[] bounds;		// bounds of the match found by MATCH
+		private final Assertions at;	// null if the program has no assertions
+
+		private Threads(PikeVM vm) {
+			this.vm = vm;
+			curr = new ThreadList(vm.code.length, vm.width);
+			next = new ThreadList(vm.code.length, vm.width);
+			stack = new int[2 * vm.code.length + 1];
+			caps = new int[vm.width];
+			bounds = new int[2];
+			at = vm.assertions ? new Assertions(vm.sets, vm.prog.isUtf8()) : null;
+		}
+	}
+
+	/* Returns THREADS if they can be used by the runs of this engine, or new threads for
+	 * them if THREADS is null or belongs to another engine. */
+	Threads threads(Threads threads) {
+		return threads != null && threads.vm == this ? threads : new Threads(this);
+	}
+
+	/* Searches TEXT up to index END for the leftmost match beginning at or after FROM and
+	 * before LIMIT. If one is found, stores its start and end indices in BOUNDS[0] and
+	 * BOUNDS[1] and returns true. Returns false otherwise. Assertions read no character
+	 * before BEGIN, as ASSERTIONS says. The run uses THREADS, which THREADS returned. */
+	boolean search(CharSequence text, int begin, int from, int end, int limit, int[] bounds,
+			Threads threads) {
+		bounds[0] = -1;
+		run(text, begin, from, end, limit, false, true, bounds, threads);
+		return bounds[0] != -1;
+	}
+
+	/* Like SEARCH, for a TEXT that continues past END with characters that are not known
+	 * yet. Returns -1 if a match was found that no continuation of the text could
+	 * change, and stores its bounds in BOUNDS. Otherwise returns the smallest index at or
+	 * after FROM at which a match could still begin. */
+	int searchPartial(CharSequence text, int begin, int from, int end, int limit,
+			int[] bounds, Threads threads) {
+		bounds[0] = -1;
+		int waiting = run(text, begin, from, end, limit, false, false, bounds, threads);
+		if (waiting == -1)
+			return bounds[0] != -1 ? -1 : end;
+		return bounds[0] != -1 ? Math.min(waiting, bounds[0]) : waiting;
+	}
+
+	/* Searches TEXT from FROM to END for the matches of a program compiled by
+	 * PROGRAM.COMPILESET, and sets FOUND[i] to true for every pattern number i that
+	 * matches. Stops once every element of FOUND is true. Returns the number of elements
+	 * set to true. */
+	int searchSet(CharSequence text, int from, int end, boolean[] found) {
+		ThreadList curr = new ThreadList(code.length);
+		ThreadList next = new ThreadList(code.length);
+		int[] stack = new int[2 * code.length + 1];
+		Assertions at = null;
+		if (assertions) {
+			at = new Assertions(sets, prog.isUtf8());
+			at.reset(text, from, end, true);
+		}
+		int count = 0;
+
+		// Every thread is run to its end, since each pattern's match counts. The order of
+		// the threads does not matter.
+		for (int pos = from; ; pos++) {
+			if (at != null)
+				at.pos = pos;
+			curr.addClosure(code, 0, pos, stack, at);
+			if (at != null)
+				at.pos = pos + 1;
+			for (int i = 0; i < curr.size; i++) {
+				int pc = curr.pcs[i];
+				switch (code[pc]) {
+					case Program.CHAR:
+						if (pos < end && Text.charAt(text, pos) == code[pc + 1])
+							next.addClosure(code, pc + 2, 0, stack, at);
+						break;
+					case Program.SET:
+						if (pos < end && sets[code[pc + 1]].contains(Text.charAt(text, pos)))
+							next.addClosure(code, pc + 2, 0, stack, at);
+						break;
+					case Program.MATCH:
+						if (!found[code[pc + 1]]) {
+							found[code[pc + 1]] = true;
+							count++;
+						}
+						break;
+				}
+			}
+
+			if (pos >= end || count == found.length)
+				return count;
+			ThreadList temp = curr;
+			curr = next;
+			next = temp;
+			next.clear();
+		}
+	}
+
+	/* Returns the index up to which the match beginning exactly at START extends without
+	 * passing END, or -1 if no match begins at START. If WHOLE is true, only a match
+	 * that extends to END counts. Assertions take TEXT to begin at START. Uses THREADS,
+	 * which THREADS returned. */
+	int match(CharSequence text, int start, int end, boolean whole, Threads threads) {
+		int[] bounds = threads.bounds;
+		bounds[1] = -1;
+		run(text, start, start, end, start + 1, whole, true, bounds, threads);
+		return bounds[1];
+	}
+
+	/* Finds the groups of the match from START to STOP that a search of TEXT found, for a
+	 * program compiled by PROGRAM.COMPILECAPTURES, and stores the start and end indices
+	 * of group g in GROUPS[2g] and GROUPS[2g + 1], or -1 in both if the group took no
+	 * part in the match. GROUPS holds two elements for each group and two for the match
+	 * itself, which are left alone. Only the threads that began at START are
+	 * run, and no further than STOP, where the first of them to reach a MATCH is the one
+	 * the search reported. Assertions read TEXT from BEGIN to END, as for SEARCH. The
+	 * run uses THREADS, which THREADS returned. */
+	void capture(CharSequence text, int begin, int start, int stop, int end, int[] groups,
+			Threads threads) {
+		ThreadList curr = threads.curr;
+		ThreadList next = threads.next;
+		int[] stack = threads.stack;
+		int[] caps = threads.caps;
+		Assertions at = threads.at;
+		curr.clear();
+		next.clear();
+		Arrays.fill(caps, -1);
+		if (at != null)
+			at.reset(text, begin, end, true);
+		Arrays.fill(groups, 2, groups.length, -1);
+
+		if (at != null)
+			at.pos = start;
+		curr.addClosure(code, 0, start, stack, at, caps, start);
+		for (int pos = start; curr.size > 0; pos++) {
+			if (at != null)
+				at.pos = pos + 1;
+			for (int i = 0; i < curr.size; i++) {
+				int pc = curr.pcs[i];
+				switch (code[pc]) {
+					case Program.CHAR:
+						if (pos < stop && Text.charAt(text, pos) == code[pc + 1]) {
+							System.arraycopy(curr.slots, i * width, caps, 0, width);
+							next.addClosure(code, pc + 2, start, stack, at, caps, pos + 1);
+						}
+						break;
+					case Program.SET:
+						if (pos < stop && sets[code[pc + 1]].contains(Text.charAt(text, pos))) {
+							System.arraycopy(curr.slots, i * width, caps, 0, width);
+							next.addClosure(code, pc + 2, start, stack, at, caps, pos + 1);
+						}
+						break;
+					case Program.MATCH:
+						if (pos < stop)
+							break;
+						// a group that was never compiled, as in (a){0}, has no slots
+						if (width > 2)
+							System.arraycopy(curr.slots, i * width + 2, groups, 2,
+								Math.min(width, groups.length) - 2);
+						return;
+				}
+			}
+
+			ThreadList temp = curr;
+			curr = next;
+			next = temp;
+			next.clear();
+		}
+	}
+
+	/* Stores the bounds of the match found in BOUNDS, which are left alone if there is
+	 * none. Returns the index at which the earliest thread still waiting for a character
+	 * at END began, or -1 if no thread that could change the result reached END. ENDED
+	 * is true if the text ends at END, and false if it may continue. If WHOLE is true,
+	 * only matches that end at END count. */
+	private int run(CharSequence text, int begin, int from, int end, int limit,
+			boolean whole, boolean ended, int[] bounds, Threads threads) {
+		ThreadList curr = threads.curr;
+		ThreadList next = threads.next;
+		int[] stack = threads.stack;
+		Assertions at = threads.at;
+		curr.clear();
+		next.clear();
+		if (at != null)
+			at.reset(text, begin, end, ended);
+		boolean matched = false;
+
+		for (int pos = from; ; pos++) {
+			// start a new thread at POS, with lower priority than the existing ones
+			if (at != null)
+				at.pos = pos;
+			if (!matched && pos < limit)
+				curr.addClosure(code, 0, pos, stack, at);
+			if (curr.size == 0)
+				return at != null ? at.waiting : -1;
+			if (at != null)
+				at.pos = pos + 1;
+
+			int running = curr.size;	// threads with priority over any match found
+			for (int i = 0; i < curr.size; i++) {
+				int pc = curr.pcs[i];
+				int start = curr.starts[i];
+				switch (code[pc]) {
+					case Program.CHAR:
+						if (pos < end && Text.charAt(text, pos) == code[pc + 1])
+							next.addClosure(code, pc + 2, start, stack, at);
+						break;
+					case Program.SET:
+						if (pos < end && sets[code[pc + 1]].contains(Text.charAt(text, pos)))
+							next.addClosure(code, pc + 2, start, stack, at);
+						break;
+					case Program.MATCH:
+						if (whole && pos < end)
+							break;
+						matched = true;
+						bounds[0] = start;
+						bounds[1] = pos;
+						// threads with lower priority can no longer affect the result
+						running = i;
+						i = curr.size;
+						break;
+				}
+			}
+
+			if (pos >= end) {
+				// threads come in order of their start, so the first one began earliest
+				int waiting = at != null ? at.waiting : -1;
+				for (int i = 0; i < running; i++) {
+					if (code[curr.pcs[i]] != Program.MATCH)
+						return waiting == -1 ? curr.starts[i] : Math.min(waiting, curr.starts[i]);
+				}
+				return waiting;
+			}
+			ThreadList temp = curr;
+			curr = next;
+			next = temp;
+			next.clear();
+		}
+	}
+}
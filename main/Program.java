@@ -0,0 +1,418 @@
+package regex;
+
+import java.util.*;
+
+/* Compiled form of a regular expression: a flat array of instructions that is run by
+ * the NFA engine. Each instruction is an opcode followed by its operands, and is
+ * addressed by the index of its opcode in CODE. Matchers add their instructions through
+ * MATCHER.COMPILE. */
+class Program {
+	static final int CHAR = 0;	// CHAR c: consume the character c
+	static final int SET = 1;	// SET i: consume a character that is in SETS[i]
+	static final int SPLIT = 2;	// SPLIT x y: continue at x, and at y with lower priority
+	static final int JMP = 3;	// JMP x: continue at x
+	static final int MATCH = 4;	// MATCH i: a match of pattern number i has been found
+	static final int LOOP = 5;	// LOOP x y: continue at x, the start of a loop, unless the
+								// current iteration matched nothing, in which case the
+								// loop ends and matching continues at y
+	static final int ASSERT = 6;	// ASSERT k i: continue if assertion k, which consumes
+									// nothing, holds at the current position
+	static final int RUN = 7;	// RUN i min max m: consume as many characters in SETS[i]
+								// as there are, up to MAX or without limit if it is
+								// REPEAT.UNBOUNDED, and at least MIN; M numbers the
+								// unbounded RUNs but the first instruction, and is -1
+								// for the others; only in flat programs
+	static final int SAVE = 8;	// SAVE n: record the current position in capture slot
+								// n; only in programs that keep captures
+
+	// assertions of ASSERT instructions
+	static final int NOT_NEXT = 0;	// the next character is not in SETS[i], or the text
+									// ends there
+	static final int BEGIN = 1;		// the text begins here
+	static final int END = 2;		// the text ends here
+	static final int END_LINE = 3;	// the text ends here, or after the line terminator
+									// that follows, \r\n counting as one
+	static final int WORD_BOUNDARY = 4;		// exactly one of the characters before and
+											// after is a word character [a-zA-Z_0-9]
+	static final int NOT_WORD_BOUNDARY = 5;	// both or neither of them are
+
+	private int[] code;
+	private int size;				// number of ints of CODE in use
+	private ArrayList<CharSet> sets;
+	private boolean reversed;		// true if the program matches the text backwards
+	private boolean utf8;			// true if the program matches the UTF-8 encoding of
+									// the text, one byte per character
+	private CaseFolding folding;	// folds the characters matched, null if case matters
+	private boolean flat;			// true if repetitions of single characters are
+									// compiled into RUN instructions
+	private int runs;				// RUN instructions numbered by their operand m
+	private ArrayList<Integer> possessive;	// addresses of the possessive RUN instructions
+	private boolean captures;		// true if capturing groups emit SAVE instructions
+
+	private Program(boolean reversed, boolean utf8, CaseFolding folding) {
+		code = new int[16];
+		size = 0;
+		sets = new ArrayList<CharSet>();
+		this.reversed = reversed;
+		this.utf8 = utf8;
+		this.folding = folding;
+	}
+
+	/* Compiles the sequence MATCHERS into a program that ends with a MATCH instruction.
+	 * If REVERSED is true, the program matches the reverse of every text that MATCHERS
+	 * match, so that it can be run from the end of a match back to its start. If UTF8
+	 * is true, the program matches the UTF-8 encoding of every text that MATCHERS match,
+	 * read one byte at a time, each byte as a character between 0 and 255. A single
+	 * character matcher then matches one code point, supplementary ones included, which
+	 * takes from one to four bytes. Unless FOLDING is null, the program matches the
+	 * characters that MATCHERS match in any of their cases. */
+	static Program compile(ArrayList<Matcher> matchers, boolean reversed, boolean utf8,
+			CaseFolding folding) {
+		Program prog = new Program(reversed, utf8, folding);
+		for (int i = 0; i < matchers.size(); i++)
+			matchers.get(reversed ? matchers.size() - 1 - i : i).compile(prog);
+		prog.emit(MATCH, 0);
+		prog.code = Arrays.copyOf(prog.code, prog.size);
+		return prog;
+	}
+
+	/* Compiles the sequence MATCHERS, as COMPILE does, into a flat program, which only
+	 * consumes characters one after the other and has no jumps: its instructions are
+	 * CHAR, SET and RUN, and a repetition of a single character consumes all of the
+	 * characters it can. Returns null if MATCHERS hold anything else, or a greedy
+	 * repetition that could have to give back characters for the rest of the pattern
+	 * to match. A greedy repetition is compiled into a RUN only if no character that it
+	 * consumes can begin what follows it, so that taking all of them never prevents a
+	 * match. A flat program is only run by REGEX.FIND, which needs no engine for it. */
+	static Program compileFlat(ArrayList<Matcher> matchers, boolean utf8,
+			CaseFolding folding) {
+		Program prog = new Program(false, utf8, folding);
+		prog.flat = true;
+		prog.possessive = new ArrayList<Integer>();
+		for (Matcher m : matchers)
+			m.compile(prog);
+		prog.emit(MATCH, 0);
+		prog.code = Arrays.copyOf(prog.code, prog.size);
+
+		// FOLLOWING holds the characters with which the rest of the pattern can begin
+		// after each instruction, walking back from the end
+		ArrayList<Integer> pcs = new ArrayList<Integer>();
+		for (int pc = 0; prog.code[pc] != MATCH; pc += length(prog.code[pc])) {
+			if (prog.code[pc] != CHAR && prog.code[pc] != SET && prog.code[pc] != RUN)
+				return null;
+			pcs.add(pc);
+		}
+		CharSet following = new CharSet(new int[0]);
+		for (int i = pcs.size() - 1; i >= 0; i--) {
+			int pc = pcs.get(i);
+			int[] code = prog.code;
+			CharSet set = code[pc] == CHAR ? new CharSet(new int[] {code[pc + 1], code[pc + 1]})
+				: prog.sets.get(code[pc + 1]);
+			if (code[pc] == RUN && !prog.possessive.contains(pc)
+					&& code[pc + 2] != code[pc + 3] && set.intersects(following))
+				return null;
+			following = code[pc] == RUN && code[pc + 2] == 0 ? set.union(following) : set;
+		}
+		return prog;
+	}
+
+	/* Compiles the sequence MATCHERS, as COMPILE does, into a program in which each
+	 * capturing group records where its match begins and ends: SAVE 2g before the
+	 * instructions of group g and SAVE 2g + 1 after them. Only PIKEVM.CAPTURE runs such
+	 * a program, to find the groups of a match that a program without them found. */
+	static Program compileCaptures(ArrayList<Matcher> matchers, boolean utf8,
+			CaseFolding folding) {
+		Program prog = new Program(false, utf8, folding);
+		prog.captures = true;
+		for (Matcher m : matchers)
+			m.compile(prog);
+		prog.emit(MATCH, 0);
+		prog.code = Arrays.copyOf(prog.code, prog.size);
+		return prog;
+	}
+
+	/* Compiles every sequence of matchers in PATTERNS into one program, in which the
+	 * instructions of PATTERNS.GET(i) end with a MATCH i instruction. A pattern with no
+	 * matchers never matches, like an empty REGEX, and gets no instructions. At least one
+	 * pattern must have matchers. */
+	static Program compileSet(List<ArrayList<Matcher>> patterns) {
+		ArrayList<Integer> used = new ArrayList<Integer>();
+		for (int i = 0; i < patterns.size(); i++) {
+			if (patterns.get(i).size() > 0)
+				used.add(i);
+		}
+
+		// SPLIT to each pattern but the last, whose second branch is the next SPLIT
+		Program prog = new Program(false, false, null);
+		for (int n = 0; n < used.size(); n++) {
+			int split = -1;
+			if (n < used.size() - 1)
+				split = prog.emit(SPLIT, prog.next() + 3, -1);
+			for (Matcher m : patterns.get(used.get(n)))
+				m.compile(prog);
+			prog.emit(MATCH, used.get(n));
+			if (split != -1)
+				prog.patch(split, 1, prog.next());
+		}
+		prog.code = Arrays.copyOf(prog.code, prog.size);
+		return prog;
+	}
+
+	/* Appends an instruction with opcode OP and operands ARGS. Returns its address. */
+	int emit(int op, int... args) {
+		int pc = size;
+		if (size + 1 + args.length > code.length)
+			code = Arrays.copyOf(code, Math.max(2 * code.length, size + 1 + args.length));
+		code[size++] = op;
+		for (int arg : args)
+			code[size++] = arg;
+		return pc;
+	}
+
+	/* Sets operand number OPERAND of the instruction at address PC to TARGET. Used to
+	 * fill in jump targets that were not known when the instruction was emitted. */
+	void patch(int pc, int operand, int target) {
+		code[pc + 1 + operand] = target;
+	}
+
+	/* Appends a RUN instruction that consumes from MIN to MAX characters matched by
+	 * MATCHER, a single character matcher, or as many as there are if MAX is
+	 * REPEAT.UNBOUNDED, and returns true. Only a flat program gets RUN instructions, and
+	 * only if MATCHER compiles into a single CHAR or SET, so that a run is consumed with
+	 * one lookup per character. A greedy run that is not POSSESSIVE is checked by
+	 * COMPILEFLAT. Returns false, having appended nothing, otherwise. */
+	boolean emitRun(Matcher matcher, int min, int max, boolean possessive) {
+		if (!flat)
+			return false;
+		int pc = size;
+		int count = runs;
+		int possessives = this.possessive.size();
+		matcher.compile(this);
+		if (size != pc + 2 || (code[pc] != CHAR && code[pc] != SET)) {
+			// forget the runs of a repeated group
+			size = pc;
+			runs = count;
+			this.possessive.subList(possessives, this.possessive.size()).clear();
+			return false;
+		}
+		int set = code[pc] == SET ? code[pc + 1]
+			: addSet(new CharSet(new int[] {code[pc + 1], code[pc + 1]}));
+		size = pc;
+		// a search skips the attempts that begin within the run of a leading RUN that
+		// failed, so it needs no memo
+		emit(RUN, set, min, max, max == Repeat.UNBOUNDED && pc > 0 ? runs++ : -1);
+		if (possessive)
+			this.possessive.add(pc);
+		return true;
+	}
+
+	/* Appends an ASSERT instruction that holds where the next character is not one that
+	 * MATCHER, a single character matcher, matches, or where the text ends. In a program
+	 * that matches UTF-8 bytes, the next character is the code point encoded there. */
+	void emitNotNext(Matcher matcher) {
+		Program chars = new Program(false, false, folding);
+		matcher.compile(chars);
+		CharSet set = chars.code[0] == CHAR
+			? new CharSet(new int[] {chars.code[1], chars.code[1]})
+			: chars.sets.get(chars.code[1]);
+		emit(ASSERT, NOT_NEXT, addSet(set));
+	}
+
+	/* Returns true if the instructions being emitted must match the text backwards.
+	 * Matchers that are sequences of other patterns compile them in reverse order. */
+	boolean isReversed() {
+		return reversed;
+	}
+
+	/* Returns true if the instructions being emitted must match UTF-8 bytes. Matchers
+	 * then emit their characters with EMITSET and EMITCODEPOINTS. */
+	boolean isUtf8() {
+		return utf8;
+	}
+
+	/* Returns true if capturing groups must emit SAVE instructions around their
+	 * instructions. */
+	boolean hasCaptures() {
+		return captures;
+	}
+
+	/* Returns the folding with which matchers must fold the characters and sets they
+	 * compile, or null if case matters. */
+	CaseFolding getCaseFolding() {
+		return folding;
+	}
+
+	/* Appends the instructions matching a single character of SET: a SET instruction, or
+	 * if the program matches UTF-8 bytes, those matching the encoding of the code points
+	 * that UTF8.CODEPOINTS finds in SET. */
+	void emitSet(CharSet set) {
+		if (utf8)
+			emitCodePoints(Utf8.codePoints(set));
+		else
+			emit(SET, addSet(set));
+	}
+
+	/* Appends the instructions matching the UTF-8 encoding of a code point in RANGES,
+	 * sorted pairs of inclusive bounds without surrogates. The sequences of bytes that
+	 * encode them are compiled into a tree of alternatives in which those beginning with
+	 * the same bytes share their instructions. If RANGES is empty, the instructions
+	 * never match. */
+	void emitCodePoints(int[] ranges) {
+		ArrayList<int[]> sequences = Utf8.sequences(ranges);
+		if (sequences.isEmpty()) {
+			emit(SET, addSet(new CharSet(new int[0])));
+			return;
+		}
+		if (reversed) {
+			for (int[] sequence : sequences) {
+				for (int i = 0, j = sequence.length - 2; i < j; i += 2, j -= 2) {
+					int lo = sequence[i];
+					int hi = sequence[i + 1];
+					sequence[i] = sequence[j];
+					sequence[i + 1] = sequence[j + 1];
+					sequence[j] = lo;
+					sequence[j + 1] = hi;
+				}
+			}
+			// bring together the sequences that begin with the same bytes
+			sequences.sort(Arrays::compare);
+		}
+		emitSequences(sequences, 0, sequences.size(), 0);
+	}
+
+	/* Appends the alternatives matching the bytes from index DEPTH of SEQUENCES FROM to
+	 * TO, which all match the same bytes before it. */
+	private void emitSequences(ArrayList<int[]> sequences, int from, int to, int depth) {
+		// as for ALTERNATION: SPLIT La, Lb;  La: a; JMP end;  Lb: ...  z; end:
+		ArrayList<Integer> jumps = new ArrayList<Integer>();
+		int i = from;
+		while (i < to) {
+			int[] first = sequences.get(i);
+			int lo = first[2 * depth];
+			int hi = first[2 * depth + 1];
+			int j = i + 1;
+			while (j < to && sequences.get(j).length > 2 * depth
+					&& sequences.get(j)[2 * depth] == lo && sequences.get(j)[2 * depth + 1] == hi)
+				j++;
+
+			int split = -1;
+			if (j < to)
+				split = emit(SPLIT, next() + 3, 0);
+			if (lo == hi)
+				emit(CHAR, lo);
+			else
+				emit(SET, addSet(new CharSet(new int[] {lo, hi})));
+			if (first.length > 2 * depth + 2)
+				emitSequences(sequences, i, j, depth + 1);
+			if (j < to) {
+				jumps.add(emit(JMP, 0));
+				patch(split, 1, next());
+			}
+			i = j;
+		}
+		for (int jump : jumps)
+			patch(jump, 0, next());
+	}
+
+	/* Returns the address of the next instruction to be emitted. */
+	int next() {
+		return size;
+	}
+
+	/* Adds SET to the sets used by SET instructions. Returns its index. */
+	int addSet(CharSet set) {
+		sets.add(set);
+		return sets.size() - 1;
+	}
+
+	int[] getCode() {
+		return code;
+	}
+
+	CharSet[] getSets() {
+		return sets.toArray(new CharSet[sets.size()]);
+	}
+
+	/* Returns the number of RUN instructions numbered by their operand m. */
+	int getRuns() {
+		return runs;
+	}
+
+	/* Returns true if the program has ASSERT instructions, which only the NFA engine
+	 * runs. */
+	boolean hasAssertions() {
+		for (int pc = 0; pc < size; pc += length(code[pc])) {
+			if (code[pc] == ASSERT)
+				return true;
+		}
+		return false;
+	}
+
+	/* Returns the set of characters with which every match of the program begins, or
+	 * null if the program can match the empty string. */
+	CharSet firstChars() {
+		int[] first = new int[0];
+		boolean[] seen = new boolean[size];
+		int[] stack = new int[size + 1];
+		int n = 0;
+		stack[n++] = 0;
+
+		// follow the instructions that consume nothing from the start
+		while (n > 0) {
+			int pc = stack[--n];
+			if (seen[pc])
+				continue;
+			seen[pc] = true;
+			switch (code[pc]) {
+				case CHAR:
+					first = Arrays.copyOf(first, first.length + 2);
+					first[first.length - 2] = code[pc + 1];
+					first[first.length - 1] = code[pc + 1];
+					break;
+				case SET:
+					int[] ranges = sets.get(code[pc + 1]).getRanges();
+					first = Arrays.copyOf(first, first.length + ranges.length);
+					System.arraycopy(ranges, 0, first, first.length - ranges.length,
+						ranges.length);
+					break;
+				case SPLIT:
+				case LOOP:
+					stack[n++] = code[pc + 2];
+					stack[n++] = code[pc + 1];
+					break;
+				case JMP:
+					stack[n++] = code[pc + 1];
+					break;
+				case SAVE:
+					stack[n++] = pc + 2;
+					break;
+				case ASSERT:
+					stack[n++] = pc + 3;
+					break;
+				case MATCH:
+					return null;
+			}
+		}
+		return new CharSet(first);
+	}
+
+	/* Returns the number of ints used by an instruction with opcode OP. */
+	static int length(int op) {
+		switch (op) {
+			case CHAR:
+			case SET:
+			case JMP:
+			case MATCH:
+			case SAVE:
+				return 2;
+			case SPLIT:
+			case LOOP:
+			case ASSERT:
+				return 3;
+			case RUN:
+				return 5;
+			default:
+				return 1;
+		}
+	}
+}
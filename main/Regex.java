@@ -4,36 +4,627 @@ import java.util.*;
 
 /* Represents a regular expression pattern. */
 public class Regex {
+	/* Default number of bytes that the states of the DFA engine may use. */
+	public static final int DEFAULT_DFA_CACHE_SIZE = 2 * 1024 * 1024;
+
+	/* Flag that makes the pattern match letters in any case. Only the letters A to Z
+	 * and a to z are folded unless UNICODE_CASE is also given. */
+	public static final int CASE_INSENSITIVE = 0x02;
+
+	/* Flag that, with CASE_INSENSITIVE, folds every character that has other cases. */
+	public static final int UNICODE_CASE = 0x40;
+
+	/* Number of patterns kept by the cache used by COMPILE. */
+	public static final int DEFAULT_CACHE_CAPACITY = 256;
+
+	private static final RegexCache cache = new RegexCache(DEFAULT_CACHE_CAPACITY);
+
+	private String pattern;
 	private ArrayList<Matcher> matchers;	// pieces of the regex pattern
+	private boolean anchored;				// true if MATCHERS begin with ^ or \A, so
+											// that a match can only begin where the
+											// text does; the engines and CODE leave it
+											// out
+	private boolean assertions;				// true if the engines have assertions,
+											// which read the characters around them
+	private int[] code;						// MATCHERS compiled into a flat PROGRAM,
+											// null if they cannot be
+	private CharSet[] sets;					// sets used by CODE
+	private Horspool prefix;				// finds the leading LITERAL, null if the
+											// pattern does not begin with one of at
+											// least two characters
+	private CandidateScanner scanner;		// finds the characters every match begins
+											// with when PREFIX is null, null if any
+	private PikeVM nfa;						// runs the compiled pattern, null if every
+											// matcher can only match in one way
+	private LazyDFA dfa;					// finds where matches of NFA end, null if
+											// NFA has assertions
+	private LazyDFA reverseDfa;				// finds where matches of NFA begin
+	private int length;						// number of characters of the shortest match
+											// of CODE, and of every match when NFA is
+											// null, one per CHAR and SET instruction
+	private int runs;						// RUN instructions of CODE that keep the
+											// bounds of their last run in a memo
+	private CharSet first;					// characters with which every match of CODE
+											// begins, null if it can match nothing
+	private RegexStats stats;
+	private CompiledPattern compiled;		// matches CODE with generated code, null
+											// unless COMPILEBYTECODE succeeded
+	private CaseFolding folding;			// folds the characters matched, null
+											// unless CASE_INSENSITIVE is given
+	private int groups;						// number of capturing groups
+	private PikeVM captures;				// runs the pattern compiled with its
+											// groups, null if it has none
+	private int dfaCacheSize = DEFAULT_DFA_CACHE_SIZE;
+	private volatile Regex utf8;			// matches the UTF-8 encoding of the text,
+											// null until first used
 	
 	public Regex(String pattern) throws InvalidRegexException{
-		matchers = Matcher.parse(Token.tokenize(pattern));
+		this(pattern, 0);
 	}
 
-	/* Searches text for the regular expression beginning at index START.
-	 * Returns the index up to which a match was found, and -1 if no match was found. */
-	int find (char[] text, int start) {
-		if (start < 0)
-			throw new IllegalArgumentException("negative start index");
+	/* Creates a REGEX for PATTERN that matches as FLAGS say, a combination of
+	 * CASE_INSENSITIVE and UNICODE_CASE or 0. Letters are folded when the pattern is
+	 * compiled, so matching takes no more work than without the flags. */
+	public Regex(String pattern, int flags) throws InvalidRegexException {
+		this(pattern, Token.tokenize(pattern), caseFolding(flags));
+	}
+
+	/* Creates a REGEX for PATTERN, split into TOKENS, that folds the characters matched
+	 * by FOLDING unless it is null. */
+	private Regex(String pattern, Tokens tokens, CaseFolding folding) {
+		// TOKENS has numbered the groups once MATCHER.PARSE returns
+		this(pattern, Matcher.parse(tokens), tokens.getGroups(), new RegexStats(), folding,
+			false);
+	}
+
+	/* Creates a REGEX made of MATCHERS, the pieces of PATTERN, with GROUPS capturing
+	 * groups, that adds its work to STATS and folds the characters matched by FOLDING
+	 * unless it is null. If UTF8 is true, it matches the UTF-8 encoding of the texts that
+	 * PATTERN matches, read one byte at a time, and its indices are byte offsets. */
+	private Regex(String pattern, ArrayList<Matcher> matchers, int groups, RegexStats stats,
+			CaseFolding folding, boolean utf8) {
+		this.pattern = pattern;
+		this.stats = stats;
+		this.matchers = matchers;
+		this.groups = groups;
+		this.folding = folding;
+		// A leading ^ is not compiled. A search only tries the position at which the
+		// text begins instead, so that it fails at once anywhere else.
+		anchored = matchers.size() > 0 && matchers.get(0) instanceof Anchor
+			&& ((Anchor)matchers.get(0)).isBegin();
+		ArrayList<Matcher> body = matchers;
+		if (anchored)
+			body = new ArrayList<Matcher>(matchers.subList(1, matchers.size()));
+		if (body.size() > 0 && body.get(0) instanceof Literal) {
+			char[] chars = ((Literal)body.get(0)).getChars();
+			// a literal with letters in more than one case is found by SCANNER instead
+			for (int i = 0; folding != null && chars != null && i < chars.length; i++) {
+				if (folding.variants(chars[i]) != null)
+					chars = null;
+			}
+			if (utf8 && chars != null)
+				chars = Utf8.encode(chars);
+			if (chars != null && chars.length > 1)
+				prefix = new Horspool(chars);
+		}
+
+		// Patterns built only from literals and single characters compile to CHAR and
+		// SET instructions that FIND runs one after the other. Anything else can match
+		// in more than one way and is run on the DFA engine, or on the NFA engine when
+		// the DFA gives up or the pattern has assertions, which the DFA cannot decide.
+		// So is a pattern such as "()" that only matches the empty string, which the
+		// engines also find at the end of the text. Repetitions of single characters
+		// that never need to give back what they consume are RUN instructions of CODE,
+		// so that searches run them one after the other too.
+		Program prog = Program.compile(body, false, utf8, folding);
+		Program flat = Program.compileFlat(body, utf8, folding);
+		boolean straight = flat != null;
+		if (flat != null) {
+			code = flat.getCode();
+			sets = flat.getSets();
+			runs = flat.getRuns();
+			for (int pc = 0; code[pc] != Program.MATCH; pc += Program.length(code[pc])) {
+				straight &= code[pc] != Program.RUN;
+				length += code[pc] == Program.RUN ? code[pc + 2] : 1;
+			}
+		}
+		assertions = prog.hasAssertions();
+		if (!straight || (length == 0 && matchers.size() > 0)) {
+			nfa = new PikeVM(prog);
+			if (!assertions) {
+				dfa = new LazyDFA(prog, false, DEFAULT_DFA_CACHE_SIZE / 2);
+				reverseDfa = new LazyDFA(Program.compile(body, true, utf8, folding), true,
+					DEFAULT_DFA_CACHE_SIZE / 2);
+			}
+		}
+		if (prefix == null && body.size() > 0)
+			scanner = CandidateScanner.create(prog.firstChars());
+		if (code != null && body.size() > 0)
+			first = prog.firstChars();
+		// the groups are only found in the matches, by a program of their own, so that
+		// searching costs the same whether the pattern has groups or not
+		if (groups > 0)
+			captures = new PikeVM(Program.compileCaptures(body, utf8, folding));
+	}
+
+	/* Returns a REGEX for PATTERN from a cache shared by the whole program, compiling it
+	 * only if it is not cached. The REGEX returned may be shared with other callers of
+	 * COMPILE, including other threads. Throws InvalidRegexException if PATTERN has a
+	 * syntax error. */
+	public static Regex compile(String pattern) throws InvalidRegexException {
+		return cache.get(pattern);
+	}
+
+	/* Returns a REGEX that matches the UTF-8 encoding of the texts this pattern matches,
+	 * in a text read one byte at a time, each byte as a character between 0 and 255.
+	 * It shares the STATS of this REGEX and is built the first time it is asked for. */
+	Regex utf8() {
+		Regex result = utf8;
+		if (result == null) {
+			result = new Regex(pattern, matchers, groups, stats, folding, true);
+			result.setDFACacheSize(dfaCacheSize);
+			if (compiled != null)
+				result.compileBytecode();
+			utf8 = result;
+		}
+		return result;
+	}
+
+	/* Returns the folding of FLAGS, null if they do not include CASE_INSENSITIVE. */
+	private static CaseFolding caseFolding(int flags) {
+		if ((flags & ~(CASE_INSENSITIVE | UNICODE_CASE)) != 0)
+			throw new IllegalArgumentException("unknown flags " + flags);
+		if ((flags & CASE_INSENSITIVE) == 0)
+			return null;
+		return (flags & UNICODE_CASE) != 0 ? CaseFolding.unicode() : CaseFolding.ASCII;
+	}
+
+	/* Returns the cache used by COMPILE, whose statistics can be read. */
+	public static RegexCache getCache() {
+		return cache;
+	}
+
+	/* Sets the number of bytes that the states of the DFA engine may use to SIZE. The
+	 * states are built as the text needs them and are discarded when they no longer
+	 * fit. A search that keeps discarding them is finished by the NFA engine instead.
+	 * A SIZE of 0 turns the DFA engine off. */
+	public void setDFACacheSize(int size) {
+		if (size < 0)
+			throw new IllegalArgumentException("negative cache size");
+		dfaCacheSize = size;
+		if (dfa != null) {
+			dfa.setCacheSize(size / 2);
+			reverseDfa.setCacheSize(size / 2);
+		}
+		if (utf8 != null)
+			utf8.setDFACacheSize(size);
+	}
+
+	/* Generates a class that matches this pattern with straight-line code, testing each
+	 * character of the text in turn without interpreting CODE, and uses it from then on.
+	 * Only patterns made of literals and single character matchers, which are not run
+	 * on the DFA engine, can be compiled this way. Returns true if the
+	 * pattern is compiled. The class is unloaded once this REGEX is garbage collected. */
+	public boolean compileBytecode() {
+		if (nfa != null)
+			return false;
+		if (compiled == null && matchers.size() > 0)
+			compiled = BytecodeCompiler.compile(code, sets, length);
+		if (compiled != null && utf8 != null)
+			utf8.compileBytecode();
+		return compiled != null;
+	}
+
+	/* Returns the counts of the work done searching for this pattern, which stay at 0
+	 * unless REGEXSTATS.ISENABLED. */
+	public RegexStats getStats() {
+		return stats;
+	}
+
+	ArrayList<Matcher> getMatchers() {
+		return matchers;
+	}
+
+	/* Returns the number of capturing groups in the pattern. */
+	public int groupCount() {
+		return groups;
+	}
+
+	/* Returns true if the pattern has assertions that read the characters around the
+	 * position they are tested at, so that a search needs the character before where
+	 * it begins. */
+	boolean hasAssertions() {
+		return assertions;
+	}
+
+	/* Returns the smallest index at or after FROM at which a match could begin, or -1
+	 * if no match can begin at or after FROM. Positions that cannot begin with the
+	 * leading LITERAL of the pattern are skipped without being examined one by one, and
+	 * so are positions not holding a character that every match begins with. */
+	int nextCandidate(CharSequence text, int from, int end) {
+		if (prefix != null)
+			return prefix.next(text, from, end);
+		if (scanner != null)
+			return scanner.next(text, from, end);
+		return from;
+	}
+
+	/* Returns the number of characters from a candidate returned by NEXTCANDIDATE that
+	 * were looked for, 0 if every position is a candidate. */
+	private int candidateLength() {
+		return prefix != null ? prefix.length() : scanner != null ? 1 : 0;
+	}
+
+	/* Searches TEXT for the leftmost match that begins at or after index FROM, before
+	 * index LIMIT, and ends at or before index END. If one is found, stores its start and
+	 * end indices in BOUNDS[0] and BOUNDS[1] and returns true. Returns false otherwise.
+	 * Text after LIMIT is only read as far as such a match extends. The text begins at
+	 * index BEGIN of TEXT, the characters before it being left out. BEGIN may be -1 if
+	 * the text begins before TEXT does, in which case the character before FROM must be
+	 * in TEXT. Uses the space in SCRATCH, which keeps what it allocates for the next
+	 * search. */
+	boolean search(CharSequence text, int begin, int from, int end, int limit,
+			int[] bounds, Scratch scratch) {
+		// ENABLED is a constant, so the JIT keeps only one of the two paths
+		if (!RegexStats.ENABLED)
+			return search(text, begin, from, end, limit, bounds, scratch, null);
+
+		SearchEvent event = new SearchEvent();
+		event.begin();
+		long[] counts = scratch.counts();
+		long time = System.nanoTime();
+		boolean found = search(text, begin, from, end, limit, bounds, scratch, counts);
+		record(event, counts, from, end, found, time);
+		return found;
+	}
+
+	/* Like SEARCH, adding the work done to COUNTS unless it is null. */
+	private boolean search(CharSequence text, int begin, int from, int end, int limit,
+			int[] bounds, Scratch scratch, long[] counts) {
+		// a match of an ANCHORED pattern can only begin at BEGIN
+		if (anchored)
+			limit = Math.min(limit, begin + 1);
+		// must also fail to find a match if there are no MATCHERS
+		if (matchers.size() == 0 || from >= limit)
+			return false;
+		// a candidate that begins before LIMIT ends by this index
+		int candidateEnd = candidateLength() == 0 ? end
+			: (int)Math.min(end, (long)limit - 1 + candidateLength());
+
+		if (code == null) {
+			int candidate = nextCandidate(text, from, candidateEnd);
+			if (candidate == -1)
+				return false;
+			if (dfa == null) {
+				boolean found = nfa.search(text, begin, candidate, end, limit, bounds,
+					threads(scratch));
+				if (counts != null)
+					countScan(counts, candidate, found ? bounds[1] : end, limit);
+				return found;
+			}
 
-		boolean failed = false;
-		int i = 0;
-		int next = start;
+			// The forward DFA finds where the match ends, then the reverse DFA runs back
+			// from there to find where it begins.
+			int matchEnd = dfa.searchForward(text, candidate, end, limit, false, null);
+			if (counts != null)
+				countScan(counts, candidate, matchEnd >= 0 ? matchEnd : end, limit);
+			if (matchEnd == LazyDFA.NO_MATCH)
+				return false;
+			if (matchEnd != LazyDFA.GAVE_UP) {
+				int start = reverseDfa.searchReverse(text, candidate, matchEnd);
+				if (counts != null) {
+					counts[RegexStats.INVOCATIONS]++;
+					counts[RegexStats.EXAMINED] += matchEnd - Math.max(start, candidate);
+				}
+				if (start >= 0) {
+					bounds[0] = start;
+					bounds[1] = matchEnd;
+					return true;
+				}
+			}
+			boolean found = nfa.search(text, begin, candidate, end, limit, bounds,
+				threads(scratch));
+			if (counts != null)
+				countScan(counts, candidate, found ? bounds[1] : end, limit);
+			return found;
+		}
+
+		return searchCode(text, from, end, limit, candidateEnd, bounds, scratch, counts);
+	}
+
+	/* Returns true if the whole of TEXT from index BEGIN to index END matches, and then
+	 * stores BEGIN and END in BOUNDS. Only the match that begins at BEGIN is tried, so
+	 * the text is read once at most. Uses the space in SCRATCH, as SEARCH does. */
+	boolean matches(CharSequence text, int begin, int end, int[] bounds, Scratch scratch) {
+		if (!RegexStats.ENABLED)
+			return matches(text, begin, end, bounds, scratch, null);
+
+		SearchEvent event = new SearchEvent();
+		event.begin();
+		long[] counts = scratch.counts();
+		long time = System.nanoTime();
+		boolean found = matches(text, begin, end, bounds, scratch, counts);
+		record(event, counts, begin, end, found, time);
+		return found;
+	}
+
+	/* Like MATCHES, adding the work done to COUNTS unless it is null. */
+	private boolean matches(CharSequence text, int begin, int end, int[] bounds,
+			Scratch scratch, long[] counts) {
+		if (matchers.size() == 0)
+			return false;
+		// CODE matches in a single way where it matches, and the engines look for the
+		// way that ends at END
+		int matchEnd;
+		if (code != null) {
+			if (counts != null)
+				counts[RegexStats.ATTEMPTS]++;
+			matchEnd = find(text, begin, end, counts, memo(scratch));
+		} else {
+			matchEnd = nfa.match(text, begin, end, true, threads(scratch));
+			if (counts != null)
+				countScan(counts, begin, matchEnd >= 0 ? matchEnd : end, begin + 1);
+		}
+		if (matchEnd != end)
+			return false;
+		bounds[0] = begin;
+		bounds[1] = end;
+		return true;
+	}
+
+	/* Finds the capturing groups of the match of a search of the text that begins at
+	 * BEGIN and ends at END, whose start and end indices are in GROUPS[0] and
+	 * GROUPS[1]. Stores the start and end indices of group g in GROUPS[2g] and
+	 * GROUPS[2g + 1], or -1 if it took no part in the match. GROUPS holds two elements
+	 * for each group and two for the match. Only the text of the match is read, and the
+	 * characters around it that assertions read. Uses the space in SCRATCH, as SEARCH
+	 * does. */
+	void capture(CharSequence text, int begin, int end, int[] groups, Scratch scratch) {
+		if (captures == null)
+			return;
+		long time = RegexStats.ENABLED ? System.nanoTime() : 0;
+		scratch.captures = captures.threads(scratch.captures);
+		captures.capture(text, begin, groups[0], groups[1], end, groups, scratch.captures);
+		if (RegexStats.ENABLED) {
+			// the work of the search that found the match, which was counted already
+			long[] counts = scratch.counts();
+			counts[RegexStats.INVOCATIONS]++;
+			counts[RegexStats.EXAMINED] += groups[1] - groups[0];
+			stats.recordWork(counts, System.nanoTime() - time);
+		}
+	}
+
+	/* Returns the threads of NFA kept in SCRATCH, which are made the first time. */
+	private PikeVM.Threads threads(Scratch scratch) {
+		scratch.nfa = nfa.threads(scratch.nfa);
+		return scratch.nfa;
+	}
+
+	/* Like SEARCH, running CODE at each candidate position in turn. Candidates are
+	 * looked for up to CANDIDATEEND. */
+	private boolean searchCode(CharSequence text, int from, int end, int limit,
+			int candidateEnd, int[] bounds, Scratch scratch, long[] counts) {
+		int[] memo = memo(scratch);
+		int stop = (int)Math.min(limit, (long)end - length + 1);	// first position not tried
+		for (int pos = from; pos < stop; pos++) {
+			// jump to the next position at which the pattern could begin
+			pos = nextCandidate(text, pos, candidateEnd);
+			if (pos == -1)
+				break;
+			// and past the characters no match begins with, without trying them
+			while (first != null && pos < stop && !first.contains(Text.charAt(text, pos)))
+				pos++;
+			if (pos == stop)
+				break;
+
+			if (counts != null)
+				counts[RegexStats.ATTEMPTS]++;
+			int next;
+			int runEnd = pos;	// end of the run of a leading RUN
+			if (code[0] == Program.RUN) {
+				runEnd = run(text, pos, end, 0, memo);
+				next = runEnd - pos < code[2] ? -1
+					: find(text, 5, runEnd, pos, end, counts, memo);
+			} else {
+				next = find(text, pos, end, counts, memo);
+			}
+			if (next != -1) {
+				bounds[0] = pos;
+				bounds[1] = next;
+				return true;
+			}
+			// an attempt that begins within the run of an unbounded leading RUN, or just
+			// after it, ends the run where this one did and fails the same way
+			if (runEnd > pos && code[3] == Repeat.UNBOUNDED)
+				pos = runEnd;
+		}
+		return false;
+	}
+
+	/* Like SEARCH, for a TEXT that continues past END with characters that are not known
+	 * yet. Returns -1 if a match was found that no continuation of the text could
+	 * change, and stores its bounds in BOUNDS. Otherwise returns the smallest index at or
+	 * after FROM at which a match could still begin once more text is known, so that
+	 * the text before it can be discarded. The text begins at BEGIN, as for SEARCH.
+	 * SCRATCH is used as by SEARCH, and HITEND[0] is set by the forward run of the DFA
+	 * to whether it read up to END. */
+	int searchPartial(CharSequence text, int begin, int from, int end, int[] bounds,
+			Scratch scratch, boolean[] hitEnd) {
+		if (!RegexStats.ENABLED)
+			return searchPartial(text, begin, from, end, bounds, scratch, hitEnd, null);
+
+		SearchEvent event = new SearchEvent();
+		event.begin();
+		long[] counts = scratch.counts();
+		long time = System.nanoTime();
+		int resume = searchPartial(text, begin, from, end, bounds, scratch, hitEnd, counts);
+		record(event, counts, from, end, resume == -1, time);
+		return resume;
+	}
+
+	/* Like SEARCHPARTIAL, adding the work done to COUNTS unless it is null. */
+	private int searchPartial(CharSequence text, int begin, int from, int end, int[] bounds,
+			Scratch scratch, boolean[] hitEnd, long[] counts) {
+		int limit = anchored ? begin + 1 : end + 1;
+		if (matchers.size() == 0 || from >= limit)
+			return end;
+
+		if (nfa == null) {
+			// Every match has the same LENGTH, so a match found is final, and so is the
+			// lack of one at every index from which LENGTH characters were read.
+			if (search(text, begin, from, end, limit, bounds, scratch, counts))
+				return -1;
+			return Math.max(from, end - length + 1);
+		}
 
-		// iterate through MATCHERS
-		while (!failed && i < matchers.size()) {
-			Matcher matcher = matchers.get(i);
-			next = matcher.matches(text, next);
-			if (next == -1)
-				failed = true;
-			i++;
+		int candidate = nextCandidate(text, from, end);
+		if (candidate == -1)
+			return Math.max(from, end - candidateLength() + 1);
+		if (dfa == null) {
+			if (counts != null)
+				countScan(counts, candidate, end, limit);
+			return nfa.searchPartial(text, begin, candidate, end, limit, bounds,
+				threads(scratch));
 		}
-		
+
+		int matchEnd = dfa.searchForward(text, candidate, end, limit, false, hitEnd);
+		if (counts != null)
+			countScan(counts, candidate, matchEnd >= 0 && !hitEnd[0] ? matchEnd : end, limit);
+		if (matchEnd != LazyDFA.GAVE_UP) {
+			int start = end;
+			if (matchEnd != LazyDFA.NO_MATCH)
+				start = reverseDfa.searchReverse(text, candidate, matchEnd);
+			if (counts != null && matchEnd >= 0) {
+				counts[RegexStats.INVOCATIONS]++;
+				counts[RegexStats.EXAMINED] += matchEnd - Math.max(start, candidate);
+			}
+			if (start >= 0 && matchEnd >= 0 && !hitEnd[0]) {
+				bounds[0] = start;
+				bounds[1] = matchEnd;
+				return -1;
+			}
+			// A thread that reached END may still find a match beginning before the
+			// one found, so keep the text from where the earliest of them began.
+			int waiting = start >= 0 ? reverseDfa.searchWaiting(text, candidate, end)
+				: LazyDFA.GAVE_UP;
+			if (waiting >= 0)
+				return Math.min(start, waiting);
+		}
+		if (counts != null)
+			countScan(counts, candidate, end, limit);
+		return nfa.searchPartial(text, begin, candidate, end, limit, bounds, threads(scratch));
+	}
+
+	/* Adds to COUNTS a run of an engine that started a thread at every position from
+	 * FROM to TO, as long as it was before LIMIT, and read the text up to TO. */
+	private static void countScan(long[] counts, int from, int to, int limit) {
+		counts[RegexStats.INVOCATIONS]++;
+		counts[RegexStats.ATTEMPTS] += Math.min(to + 1, limit) - from;
+		counts[RegexStats.EXAMINED] += to - from;
+	}
+
+	/* Adds a search that began at TIME and whose work is in COUNTS to STATS, and commits
+	 * EVENT if it is recorded. */
+	private void record(SearchEvent event, long[] counts, int from, int end, boolean matched,
+			long time) {
+		stats.record(counts, matched, System.nanoTime() - time);
+		event.end();
+		if (event.shouldCommit()) {
+			event.pattern = pattern;
+			event.from = from;
+			event.end = end;
+			event.matched = matched;
+			event.attempts = counts[RegexStats.ATTEMPTS];
+			event.examined = counts[RegexStats.EXAMINED];
+			event.invocations = counts[RegexStats.INVOCATIONS];
+			event.commit();
+		}
+	}
+
+	/* Searches text for the regular expression beginning at index START, without
+	 * reading at or after index END, running CODE, which must not be null.
+	 * Returns the index up to which a match was found, and -1 if no match was found.
+	 * Adds the work done to COUNTS unless it is null. MEMO holds the runs found by the
+	 * RUN instructions of CODE in earlier calls of the same search, as RUN says, and may
+	 * be null if there are none. */
+	int find (CharSequence text, int start, int end, long[] counts, int[] memo) {
+		if (start < 0)
+			throw new IllegalArgumentException("negative start index");
 		// must also fail to find a match if there are no MATCHERS
-		if (failed || matchers.size() == 0)
+		if (matchers.size() == 0 || end - start < length)
 			return -1;
-		else
+		if (compiled != null) {
+			int next = compiled.match(text, start, end);
+			if (counts != null) {
+				counts[RegexStats.INVOCATIONS]++;
+				counts[RegexStats.EXAMINED] += next == -1 ? 1 : next - start;
+			}
 			return next;
+		}
+
+		return find(text, 0, start, start, end, counts, memo);
+	}
+
+	/* Like FIND, running CODE from the instruction at PC and index POS of TEXT, which
+	 * the instructions before it reached from START. */
+	private int find(CharSequence text, int pc, int pos, int start, int end, long[] counts,
+			int[] memo) {
+		// run the instructions of CODE one after the other, each consuming a character,
+		// or a run of them
+		while (code[pc] != Program.MATCH) {
+			if (code[pc] == Program.RUN) {
+				int to = run(text, pos, end, pc, memo);
+				boolean enough = to - pos >= code[pc + 2];
+				pos = to;
+				if (!enough)
+					break;
+				pc += 5;
+				continue;
+			}
+			if (pos == end)
+				break;
+			char c = Text.charAt(text, pos);
+			if (code[pc] == Program.CHAR ? c != code[pc + 1] : !sets[code[pc + 1]].contains(c))
+				break;
+			pc += 2;
+			pos++;
+		}
+
+		boolean matched = code[pc] == Program.MATCH;
+		if (counts != null) {
+			counts[RegexStats.INVOCATIONS]++;
+			counts[RegexStats.EXAMINED] += (matched ? pos : pos + 1) - start;
+		}
+		return matched ? pos : -1;
+	}
+
+	/* Returns the memo of the RUN instructions of CODE for one search, as RUN describes
+	 * it, kept in SCRATCH, or null if none of them keeps one. */
+	private int[] memo(Scratch scratch) {
+		return runs == 0 ? null : scratch.memo(runs);
+	}
+
+	/* Returns the index at which the run of characters of the RUN instruction at PC that
+	 * begins at index POS of TEXT ends, without reading at or after END. The characters
+	 * are tested with a single lookup each. An unbounded RUN stores the bounds of its
+	 * run in MEMO, and a later attempt that reaches it within them takes its end from
+	 * there instead of reading the run again, so that a search reads each character
+	 * once per RUN however many attempts cross it. */
+	private int run(CharSequence text, int pos, int end, int pc, int[] memo) {
+		CharSet set = sets[code[pc + 1]];
+		int slot = code[pc + 4];
+		if (slot >= 0 && memo[2 * slot] <= pos && pos <= memo[2 * slot + 1])
+			return memo[2 * slot + 1];
+		int limit = code[pc + 3] == Repeat.UNBOUNDED ? end : Math.min(end, pos + code[pc + 3]);
+		int to = pos;
+		while (to < limit && set.contains(Text.charAt(text, to)))
+			to++;
+		if (slot >= 0) {
+			memo[2 * slot] = pos;
+			memo[2 * slot + 1] = to;
+		}
+		return to;
 	}
 
 	public String toString() {
@@ -44,4 +635,3 @@ public class Regex {
 	}
 	
 }
-
@@ -0,0 +1,120 @@
+package regex;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/* Bounded cache of compiled patterns, which can be used by many threads at once. A
+ * pattern found in the cache is returned without taking any lock. When the cache is
+ * full, the pattern to discard is chosen with the CLOCK algorithm, an approximation of
+ * LRU: patterns are kept in the order they were added, and one that was used since the
+ * clock hand last passed it gets a second chance instead of being discarded. Only a
+ * thread that added a pattern to a full cache takes the lock of the clock.
+ *
+ * The cached REGEX objects are shared by every caller, so changing one, for example
+ * with SETDFACACHESIZE, changes it for all of them. */
+public class RegexCache {
+
+	private final int capacity;
+	private final ConcurrentHashMap<String, Entry> entries;
+	private final ConcurrentLinkedQueue<Entry> clock;	// entries in the order the hand
+														// visits them, starting at the head
+	private final AtomicInteger size;
+	private final LongAdder hits;
+	private final LongAdder misses;
+	private final LongAdder evictions;
+
+	/* Creates a cache holding at most CAPACITY patterns. */
+	public RegexCache(int capacity) {
+		if (capacity < 0)
+			throw new IllegalArgumentException("negative capacity");
+		this.capacity = capacity;
+		entries = new ConcurrentHashMap<String, Entry>();
+		clock = new ConcurrentLinkedQueue<Entry>();
+		size = new AtomicInteger();
+		hits = new LongAdder();
+		misses = new LongAdder();
+		evictions = new LongAdder();
+	}
+
+	/* Returns the REGEX for PATTERN, compiling it and adding it to the cache if it is not
+	 * there. Throws InvalidRegexException if PATTERN has a syntax error, in which case
+	 * nothing is added. */
+	public Regex get(String pattern) throws InvalidRegexException {
+		Entry e = entries.get(pattern);
+		if (e != null) {
+			hits.increment();
+			// only write when needed, so that threads using the same pattern do not
+			// keep invalidating each other's copy of it
+			if (!e.used)
+				e.used = true;
+			return e.regex;
+		}
+
+		misses.increment();
+		Entry created = new Entry(pattern, new Regex(pattern));
+		e = entries.putIfAbsent(pattern, created);
+		if (e != null)	// compiled by another thread in the meantime
+			return e.regex;
+		clock.add(created);
+		if (size.incrementAndGet() > capacity)
+			evict();
+		return created.regex;
+	}
+
+	/* Discards patterns until the cache is no longer over capacity. */
+	private void evict() {
+		synchronized (clock) {
+			while (size.get() > capacity) {
+				Entry e = clock.poll();
+				if (e == null)
+					break;
+				if (e.used) {
+					e.used = false;
+					clock.add(e);
+				} else {
+					entries.remove(e.pattern, e);
+					size.decrementAndGet();
+					evictions.increment();
+				}
+			}
+		}
+	}
+
+	/* Returns the number of patterns in the cache. */
+	public int size() {
+		return size.get();
+	}
+
+	/* Returns the number of patterns the cache may hold. */
+	public int capacity() {
+		return capacity;
+	}
+
+	/* Returns the number of calls to GET that found their pattern in the cache. */
+	public long hitCount() {
+		return hits.sum();
+	}
+
+	/* Returns the number of calls to GET that had to compile their pattern. */
+	public long missCount() {
+		return misses.sum();
+	}
+
+	/* Returns the number of patterns discarded to make room for others. */
+	public long evictionCount() {
+		return evictions.sum();
+	}
+
+	private static final class Entry {
+		final String pattern;
+		final Regex regex;
+		volatile boolean used;	// true if found in the cache since the hand last passed
+
+		Entry(String pattern, Regex regex) {
+			this.pattern = pattern;
+			this.regex = regex;
+		}
+	}
+}
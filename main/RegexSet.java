@@ -0,0 +1,105 @@
+package regex;
+
+import java.util.*;
+
+/* Represents a set of regular expression patterns that are searched for together. The
+ * patterns are compiled into a single program, so that one pass over a text finds every
+ * pattern that matches it, in time that grows with the length of the text rather than
+ * with its length times the number of patterns. */
+public class RegexSet {
+
+	private Regex[] patterns;
+	private PikeVM nfa;		// runs every pattern at once, null if none can match
+	private LazyDFA dfa;	// runs NFA without cutting threads at a match, null if NFA
+							// has assertions
+
+	public RegexSet(String... patterns) throws InvalidRegexException {
+		this.patterns = new Regex[patterns.length];
+		ArrayList<ArrayList<Matcher>> matchers = new ArrayList<ArrayList<Matcher>>();
+		boolean empty = true;
+		for (int i = 0; i < patterns.length; i++) {
+			this.patterns[i] = new Regex(patterns[i]);
+			matchers.add(this.patterns[i].getMatchers());
+			if (matchers.get(i).size() > 0)
+				empty = false;
+		}
+
+		if (!empty) {
+			Program prog = Program.compileSet(matchers);
+			nfa = new PikeVM(prog);
+			// the DFA engine cannot decide the assertions of anchors and of possessive
+			// repetitions
+			if (!prog.hasAssertions())
+				dfa = new LazyDFA(prog, true, Regex.DEFAULT_DFA_CACHE_SIZE);
+		}
+	}
+
+	/* Returns the number of patterns in the set. */
+	public int size() {
+		return patterns.length;
+	}
+
+	/* Returns pattern number I. */
+	public Regex get(int i) {
+		return patterns[i];
+	}
+
+	/* Sets the number of bytes that the states of the DFA engine may use to SIZE, as
+	 * REGEX.SETDFACACHESIZE does. The states of a set hold the threads of every pattern,
+	 * so a set of many patterns may need a larger cache than a single REGEX. */
+	public void setDFACacheSize(int size) {
+		if (size < 0)
+			throw new IllegalArgumentException("negative cache size");
+		if (dfa != null)
+			dfa.setCacheSize(size);
+	}
+
+	/* Returns the numbers of the patterns that match somewhere in TEXT, in increasing
+	 * order. */
+	public int[] matches(CharSequence text) {
+		boolean[] found = new boolean[patterns.length];
+		int count = search(Text.wrap(text), found);
+		int[] result = new int[count];
+		int n = 0;
+		for (int i = 0; i < found.length; i++) {
+			if (found[i])
+				result[n++] = i;
+		}
+		return result;
+	}
+
+	/* Returns the numbers of the patterns that match somewhere in TEXT, in increasing
+	 * order, and stores in BOUNDS[2 * i] and BOUNDS[2 * i + 1] the start and end indices
+	 * of the first match of pattern number i that a SEARCH of TEXT would find, or -1 if
+	 * pattern i does not match. Only the patterns that match are searched for again to
+	 * find where. */
+	public int[] matches(CharSequence text, int[] bounds) {
+		if (bounds.length < 2 * patterns.length)
+			throw new IllegalArgumentException("bounds shorter than twice the number of "
+				+ "patterns");
+		CharSequence t = Text.wrap(text);
+		int[] result = matches(t);
+		Arrays.fill(bounds, 0, 2 * patterns.length, -1);
+		int[] match = new int[2];
+		Scratch scratch = new Scratch();	// shared by the searches of the patterns
+		for (int i : result) {
+			if (patterns[i].search(t, 0, 0, t.length(), t.length() + 1, match, scratch)) {
+				bounds[2 * i] = match[0];
+				bounds[2 * i + 1] = match[1];
+			}
+		}
+		return result;
+	}
+
+	private int search(CharSequence text, boolean[] found) {
+		if (nfa == null)
+			return 0;
+		if (dfa != null) {
+			int count = dfa.searchSet(text, 0, text.length(), found);
+			if (count != LazyDFA.GAVE_UP)
+				return count;
+			Arrays.fill(found, false);
+		}
+		return nfa.searchSet(text, 0, text.length(), found);
+	}
+}
@@ -0,0 +1,112 @@
+package regex;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/* Counts the work done searching for one pattern, to find out which patterns use the
+ * most time. Counting is off unless the system property regex.stats is true when the
+ * library is loaded. The property is read once into a constant, so that when it is off
+ * the JIT compiles the counting code away and searches run as if it did not exist.
+ * When it is on, every search also emits a regex.Search event, recorded by Java Flight
+ * Recorder when it lasts longer than the threshold of the recording. MATCHES and
+ * LOOKINGAT of a SEARCH count as searches too. Finding the groups of a match adds its
+ * work and time to the counts, but is not a search of its own and emits no event. */
+public final class RegexStats {
+	static final boolean ENABLED = Boolean.getBoolean("regex.stats");
+
+	// indices of the counts that a search adds up before they are recorded
+	static final int ATTEMPTS = 0;
+	static final int EXAMINED = 1;
+	static final int INVOCATIONS = 2;
+	static final int COUNTS = 3;
+
+	private final LongAdder searches;
+	private final LongAdder attempts;
+	private final LongAdder examined;
+	private final LongAdder invocations;
+	private final LongAdder matches;
+	private final LongAdder nanos;
+
+	RegexStats() {
+		searches = new LongAdder();
+		attempts = new LongAdder();
+		examined = new LongAdder();
+		invocations = new LongAdder();
+		matches = new LongAdder();
+		nanos = new LongAdder();
+	}
+
+	/* Returns true if searches are counted. */
+	public static boolean isEnabled() {
+		return ENABLED;
+	}
+
+	/* Adds a search that took NANOS nanoseconds and found a match if MATCHED, with
+	 * COUNTS indexed by ATTEMPTS, EXAMINED and INVOCATIONS. */
+	void record(long[] counts, boolean matched, long nanos) {
+		searches.increment();
+		attempts.add(counts[ATTEMPTS]);
+		examined.add(counts[EXAMINED]);
+		invocations.add(counts[INVOCATIONS]);
+		if (matched)
+			matches.increment();
+		this.nanos.add(nanos);
+	}
+
+	/* Adds work done for a match that a search already counted, such as finding its
+	 * groups, which took NANOS nanoseconds, with COUNTS as for RECORD. */
+	void recordWork(long[] counts, long nanos) {
+		attempts.add(counts[ATTEMPTS]);
+		examined.add(counts[EXAMINED]);
+		invocations.add(counts[INVOCATIONS]);
+		this.nanos.add(nanos);
+	}
+
+	/* Returns the number of searches, each of which looks for the next match. */
+	public long searchCount() {
+		return searches.sum();
+	}
+
+	/* Returns the number of start positions at which a match was looked for. */
+	public long attemptCount() {
+		return attempts.sum();
+	}
+
+	/* Returns the number of characters read by the matchers and engines. A character
+	 * read by several engines, such as the forward and reverse DFA, is counted once
+	 * for each. Characters skipped while looking for the leading literal of the pattern
+	 * are not counted. */
+	public long charsExamined() {
+		return examined.sum();
+	}
+
+	/* Returns the number of times a matcher or an engine was run. */
+	public long matcherInvocations() {
+		return invocations.sum();
+	}
+
+	/* Returns the number of searches that found a match. */
+	public long matchCount() {
+		return matches.sum();
+	}
+
+	/* Returns the time spent searching, in nanoseconds. */
+	public long nanos() {
+		return nanos.sum();
+	}
+
+	/* Sets every count to 0. Counts added while this runs may be lost. */
+	public void reset() {
+		searches.reset();
+		attempts.reset();
+		examined.reset();
+		invocations.reset();
+		matches.reset();
+		nanos.reset();
+	}
+
+	public String toString() {
+		return "searches=" + searchCount() + " attempts=" + attemptCount() + " examined="
+			+ charsExamined() + " invocations=" + matcherInvocations() + " matches="
+			+ matchCount() + " nanos=" + nanos();
+	}
+}
@@ -0,0 +1,31 @@
+package regex;
+
+import java.util.Arrays;
+
+/* Scratch space for the searches of a REGEX, which a SEARCH keeps from one search to the
+ * next so that searching allocates nothing once the space has grown to what the pattern
+ * needs. Only one search at a time may use it. */
+final class Scratch {
+	private int[] memo;			// memo of the RUN instructions of a flat program
+	PikeVM.Threads nfa;			// threads of the engine that searches, null until it
+								// first runs
+	PikeVM.Threads captures;	// threads of the engine that finds groups
+	private long[] counts;		// work done by a search, when REGEXSTATS.ENABLED
+
+	/* Returns a memo for RUNS RUN instructions, as REGEX.RUN describes it, in which no
+	 * run is known yet. */
+	int[] memo(int runs) {
+		if (memo == null || memo.length < 2 * runs)
+			memo = new int[2 * runs];
+		Arrays.fill(memo, 0, 2 * runs, -1);
+		return memo;
+	}
+
+	/* Returns the counts of REGEXSTATS for a search, all zero. */
+	long[] counts() {
+		if (counts == null)
+			counts = new long[RegexStats.COUNTS];
+		Arrays.fill(counts, 0);
+		return counts;
+	}
+}
@@ -1,47 +1,216 @@
 package regex;
 
-/* Searches a String for a given regular expression pattern. */
+import java.nio.IntBuffer;
+
+/* Searches a CharSequence for a given regular expression pattern. The text is read in
+ * place: it is not copied, so it must not change while it is being searched. RESET
+ * starts a search of another text, so that one Search, kept by a thread, can search many
+ * of them without allocating anything once its scratch space has grown to what the
+ * pattern needs. */
 public class Search {
 	
 	private Regex pattern;
-	private char[] text;
-	private int pos;		// current search position in TEXT
-	private String match;   // last match found
+	private CharSequence text;
+	private int start;			// index at which the searched region of TEXT begins
+	private int end;			// index at which the searched region of TEXT ends
+	private int pos;			// current search position in TEXT
+	private boolean matched;	// true if the last invocation of FIND found a match
+	private String match;		// last match found, built when it is first asked for
+	private int[] bounds;		// start and end indices of the last match found, then
+								// of each of its groups once RESOLVED
+	private boolean resolved;	// true if BOUNDS holds the groups of the last match
+	private Text.ArrayText view;	// TEXT when it is an array, pointed at each array
+									// searched
+	private Scratch scratch;	// space used by the searches, kept from one to the next
+
+	public Search(Regex r, CharSequence s) {
+		this(r, s, 0, s.length());
+	}
 
-	public Search(Regex r, String s) {
+	/* Creates a Search that only looks for matches within the region of S that begins
+	 * at index START and ends before index END. Matches are reported with indices into
+	 * the whole of S. */
+	public Search(Regex r, CharSequence s, int start, int end) {
 		pattern = r;
-		text = s.toCharArray();
-		pos = 0;
+		bounds = new int[2 * (r.groupCount() + 1)];
+		view = new Text.ArrayText(new char[0], 0, 0);
+		scratch = new Scratch();
+		checkRegion(start, end, s.length());
+		setText(Text.wrap(s, view), start, end);
+	}
+
+	/* Makes this Search look for matches in the whole of S from its beginning, as a new
+	 * Search of S would, keeping the space it allocated for the text before. */
+	public void reset(CharSequence s) {
+		reset(s, 0, s.length());
+	}
+
+	/* Like RESET, for the region of S that begins at index START and ends before index
+	 * END. */
+	public void reset(CharSequence s, int start, int end) {
+		checkRegion(start, end, s.length());
+		setText(Text.wrap(s, view), start, end);
+	}
+
+	/* Like RESET, for the region of CHARS that begins at index START and ends before
+	 * index END. The array is read in place, without being copied. */
+	public void reset(char[] chars, int start, int end) {
+		checkRegion(start, end, chars.length);
+		view.set(chars, 0, chars.length);
+		setText(view, start, end);
+	}
+
+	/* Makes TEXT the text searched from START to END, from the beginning. */
+	private void setText(CharSequence text, int start, int end) {
+		this.text = text;
+		this.start = start;
+		this.end = end;
+		pos = start;
+		matched = false;
 		match = null;
 	}
 
+	/* Throws IndexOutOfBoundsException unless START and END bound a region of a text of
+	 * LENGTH characters. */
+	private static void checkRegion(int start, int end, int length) {
+		if (start < 0 || end > length || start > end)
+			throw new IndexOutOfBoundsException("start " + start + ", end " + end
+				+ ", length " + length);
+	}
+
 	/* Returns true if there is a subsequence of characters in TEXT starting at or after
 	 * POS that matches PATTERN. Returns false otherwise. Subsequent calls to FIND will
 	 * begin searching after the location of the previous match. */
 	public boolean find() {
-		boolean found = false;
-
-		while (!found && pos < text.length) {
-			int next = pattern.find(text, pos);
-			if (next == -1) {
-				pos++;
-			} else {
-				found = true;
-				match = String.valueOf(text, pos, next-pos);
-				pos = next;
-			}
+		match = null;
+		if (pos <= end && pattern.search(text, start, pos, end, end + 1, bounds, scratch))
+			return found();
+
+		pos = end + 1;
+		matched = false;
+		return false;
+	}
+
+	/* Returns true if the whole region of TEXT matches PATTERN. Returns false otherwise.
+	 * Only a match that begins where the region does is tried. A match found is
+	 * reported as FIND reports one, and FIND goes on after it. */
+	public boolean matches() {
+		match = null;
+		matched = false;
+		return pattern.matches(text, start, end, bounds, scratch) && found();
+	}
+
+	/* Returns true if a match of PATTERN begins where the region of TEXT does, and
+	 * reports the one FIND would find there. Returns false otherwise, without trying
+	 * any other position. */
+	public boolean lookingAt() {
+		match = null;
+		matched = false;
+		return pattern.search(text, start, start, end, start + 1, bounds, scratch) && found();
+	}
+
+	/* Records the match in BOUNDS as the last one found, and returns true. */
+	private boolean found() {
+		matched = true;
+		resolved = false;
+		// an empty match must not be found again at the same position
+		pos = bounds[1] > bounds[0] ? bounds[1] : bounds[1] + 1;
+		return true;
+	}
+
+	/* Finds the next matches, as FIND would, until OFFSETS is full or there are no more,
+	 * and stores the start and end indices of each one in two consecutive elements of
+	 * OFFSETS. Returns the number of matches found. */
+	public int findAll(int[] offsets) {
+		int n = 0;
+		while (2 * n + 1 < offsets.length && find()) {
+			offsets[2 * n] = bounds[0];
+			offsets[2 * n + 1] = bounds[1];
+			n++;
+		}
+		return n;
+	}
+
+	/* Finds the next matches, as FIND would, until OFFSETS has less than two elements
+	 * remaining or there are no more, and puts the start and end indices of each one in
+	 * OFFSETS. Returns the number of matches found. */
+	public int findAll(IntBuffer offsets) {
+		int n = 0;
+		while (offsets.remaining() >= 2 && find()) {
+			offsets.put(bounds[0]);
+			offsets.put(bounds[1]);
+			n++;
 		}
+		return n;
+	}
 
-		if (!found)
-			match = null;
+	/* Returns the index at which the match found by the last invocation of FIND
+	 * begins. */
+	public int start() {
+		if (!matched)
+			throw new IllegalStateException("no match");
+		return bounds[0];
+	}
 
-		return found;
+	/* Returns the index just after the end of the match found by the last invocation of
+	 * FIND. */
+	public int end() {
+		if (!matched)
+			throw new IllegalStateException("no match");
+		return bounds[1];
 	}
 
 	/* Returns the match that was found by the last invocation of FIND. If the last
-	 * invocation was not successful, returns NULL. */
+	 * invocation was not successful, returns NULL. The String is only built when this
+	 * method is first called for a match. */
 	public String getResult() {
+		if (matched && match == null)
+			match = text.subSequence(bounds[0], bounds[1]).toString();
 		return match;
 	}
 
+	/* Returns the number of capturing groups in the pattern. */
+	public int groupCount() {
+		return pattern.groupCount();
+	}
+
+	/* Returns the index at which GROUP of the match found by the last invocation of FIND
+	 * begins, or -1 if the group took no part in the match. Group 0 is the whole match.
+	 * The groups are found when one of them is first asked for, by running the pattern
+	 * over the match again, and are kept in an array of this Search that every match
+	 * reuses. */
+	public int start(int group) {
+		return bounds[2 * group(group)];
+	}
+
+	/* Returns the index just after the end of GROUP of the match found by the last
+	 * invocation of FIND, or -1 if the group took no part in the match. */
+	public int end(int group) {
+		return bounds[2 * group(group) + 1];
+	}
+
+	/* Returns the text matched by GROUP in the match found by the last invocation of
+	 * FIND, or NULL if the last invocation was not successful or the group took no part
+	 * in the match. */
+	public String getResult(int group) {
+		if (!matched || start(group) == -1)
+			return null;
+		return text.subSequence(start(group), end(group)).toString();
+	}
+
+	/* Checks that there is a match and that it has GROUP, finds its groups if they are
+	 * not known yet, and returns GROUP. */
+	private int group(int group) {
+		if (!matched)
+			throw new IllegalStateException("no match");
+		if (group < 0 || group > pattern.groupCount())
+			throw new IndexOutOfBoundsException("group " + group + ", groups "
+				+ pattern.groupCount());
+		if (group > 0 && !resolved) {
+			pattern.capture(text, start, end, bounds, scratch);
+			resolved = true;
+		}
+		return group;
+	}
+
 }
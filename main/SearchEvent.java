@@ -0,0 +1,44 @@
+package regex;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/* Java Flight Recorder event for one search of a REGEX, emitted when REGEXSTATS is
+ * enabled. Only searches slower than the threshold are recorded, 1 ms unless the
+ * recording sets another; REGEXSTATS counts all of them. */
+@Name("regex.Search")
+@Label("Regex Search")
+@Category("Regex")
+@Description("Search for the next match of a pattern")
+@Threshold("1 ms")
+@StackTrace(false)
+final class SearchEvent extends Event {
+	@Label("Pattern")
+	String pattern;
+
+	@Label("From")
+	@Description("Index at which the search began")
+	int from;
+
+	@Label("End")
+	@Description("Index at which the searched text ends")
+	int end;
+
+	@Label("Matched")
+	boolean matched;
+
+	@Label("Attempts")
+	@Description("Start positions at which a match was looked for")
+	long attempts;
+
+	@Label("Characters Examined")
+	long examined;
+
+	@Label("Matcher Invocations")
+	long invocations;
+}
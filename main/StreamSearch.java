@@ -0,0 +1,94 @@
+package regex;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+
+/* Searches a stream of characters for a given regular expression pattern as it is
+ * read, one chunk at a time. Only the text from which a match could still begin is
+ * kept between chunks, so that a match spanning the end of a chunk is found once the
+ * next one is read. For a pattern whose matches are at most N characters long, fewer
+ * than N characters are kept, and the memory used does not depend on the length of the
+ * stream. Matches are reported with the number of characters read before their start
+ * and end. */
+public class StreamSearch extends ChunkedSearch implements AutoCloseable {
+	private static final int CHUNK = 8192;	// characters read at a time
+
+	private Reader in;
+	private char[] chars;		// text in the window, followed by room for the next chunk
+	private int length;			// number of characters of CHARS in the window
+	private long base;			// number of characters read before the window
+	private boolean eof;		// true if the end of IN was reached
+	private Text.ArrayText window;	// view of CHARS, pointed at it again after each read
+
+	public StreamSearch(Regex r, Reader in) throws IOException {
+		this(r, in, CHUNK);
+	}
+
+	/* Creates a StreamSearch reading bytes from IN and decoding them with CHARSET. Bytes
+	 * that are not valid in CHARSET are read as U+FFFD. */
+	public StreamSearch(Regex r, ReadableByteChannel in, Charset charset) throws IOException {
+		this(r, Channels.newReader(in, charset.newDecoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE), CHUNK), CHUNK);
+	}
+
+	/* Creates a StreamSearch that reads chunks of at most CHUNK characters. */
+	StreamSearch(Regex r, Reader in, int chunk) throws IOException {
+		super(r);
+		this.in = in;
+		chars = new char[Math.max(chunk, 1)];
+		length = 0;
+		base = 0;
+		eof = false;
+		window = new Text.ArrayText(chars, 0, 0);
+		read();
+	}
+
+	CharSequence window() {
+		return window;
+	}
+
+	boolean atEnd() {
+		return eof;
+	}
+
+	long offset(int i) {
+		return base + i;
+	}
+
+	void slide(int from) throws IOException {
+		length -= from;
+		base += from;
+		if (length == chars.length) {
+			char[] newChars = new char[2 * chars.length];
+			System.arraycopy(chars, from, newChars, 0, length);
+			chars = newChars;
+		} else {
+			System.arraycopy(chars, from, chars, 0, length);
+		}
+		read();
+	}
+
+	/* Reads the next chunk after the window, which must have room for at least one
+	 * character. */
+	private void read() throws IOException {
+		int n;
+		do {
+			n = in.read(chars, length, chars.length - length);
+		} while (n == 0);
+		if (n == -1)
+			eof = true;
+		else
+			length += n;
+		window.set(chars, 0, length);
+	}
+
+	/* Closes the stream being read. */
+	public void close() throws IOException {
+		in.close();
+	}
+}
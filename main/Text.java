@@ -0,0 +1,186 @@
+package regex;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+
+/* Reads the characters of the text given to a SEARCH without copying it. Strings and
+ * arrays of characters, including the arrays behind heap CharBuffers, are read directly
+ * so that the engines' loops only make calls the JIT can inline. Any other CharSequence
+ * is read through CharSequence.charAt. The bytes searched by a UTF8SEARCH are read as
+ * characters between 0 and 255, arrays of bytes directly as well. */
+final class Text {
+
+	private Text() {
+	}
+
+	/* Returns the character at index I of TEXT. */
+	static char charAt(CharSequence text, int i) {
+		if (text instanceof String)
+			return ((String)text).charAt(i);
+		if (text instanceof ArrayText) {
+			ArrayText a = (ArrayText)text;
+			return a.array[a.offset + i];
+		}
+		if (text instanceof ByteArrayText) {
+			ByteArrayText a = (ByteArrayText)text;
+			return (char)(a.array[a.offset + i] & 0xFF);
+		}
+		return text.charAt(i);
+	}
+
+	/* Returns TEXT, or a view of the array behind it if TEXT is a heap CharBuffer. The
+	 * view holds the characters between the position and the limit of the buffer when
+	 * this method is called. */
+	static CharSequence wrap(CharSequence text) {
+		if (text instanceof CharBuffer) {
+			CharBuffer buffer = (CharBuffer)text;
+			if (buffer.hasArray())
+				return new ArrayText(buffer.array(), buffer.arrayOffset() + buffer.position(),
+					buffer.remaining());
+		}
+		return text;
+	}
+
+	/* Like WRAP, pointing VIEW at the array behind TEXT if it is a heap CharBuffer, and
+	 * returning it rather than a new view. */
+	static CharSequence wrap(CharSequence text, ArrayText view) {
+		if (text instanceof CharBuffer) {
+			CharBuffer buffer = (CharBuffer)text;
+			if (buffer.hasArray()) {
+				view.set(buffer.array(), buffer.arrayOffset() + buffer.position(),
+					buffer.remaining());
+				return view;
+			}
+		}
+		return text;
+	}
+
+	/* Returns a view of LENGTH characters of ARRAY beginning at index OFFSET. */
+	static CharSequence wrap(char[] array, int offset, int length) {
+		if (offset < 0 || length < 0 || offset > array.length - length)
+			throw new IndexOutOfBoundsException("offset " + offset + ", length " + length
+				+ ", array length " + array.length);
+		return new ArrayText(array, offset, length);
+	}
+
+	/* Returns a view of LENGTH bytes of ARRAY beginning at index OFFSET, one character
+	 * per byte. */
+	static CharSequence wrap(byte[] array, int offset, int length) {
+		if (offset < 0 || length < 0 || offset > array.length - length)
+			throw new IndexOutOfBoundsException("offset " + offset + ", length " + length
+				+ ", array length " + array.length);
+		return new ByteArrayText(array, offset, length);
+	}
+
+	/* Returns a view of the bytes between the position and the limit of BUFFER when this
+	 * method is called, one character per byte. */
+	static CharSequence wrap(ByteBuffer buffer) {
+		if (buffer.hasArray())
+			return new ByteArrayText(buffer.array(), buffer.arrayOffset() + buffer.position(),
+				buffer.remaining());
+		return new ByteBufferText(buffer.slice());
+	}
+
+	/* CharSequence over part of a char array, which is not copied. SET points it at
+	 * another one, so that a SEARCH reset many times needs a single view. */
+	static final class ArrayText implements CharSequence {
+		char[] array;
+		int offset;
+		private int length;
+
+		ArrayText(char[] array, int offset, int length) {
+			set(array, offset, length);
+		}
+
+		/* Makes this view hold LENGTH characters of ARRAY beginning at index OFFSET. */
+		void set(char[] array, int offset, int length) {
+			this.array = array;
+			this.offset = offset;
+			this.length = length;
+		}
+
+		public int length() {
+			return length;
+		}
+
+		public char charAt(int i) {
+			if (i < 0 || i >= length)
+				throw new IndexOutOfBoundsException("index " + i + ", length " + length);
+			return array[offset + i];
+		}
+
+		public CharSequence subSequence(int start, int end) {
+			if (start < 0 || end > length || start > end)
+				throw new IndexOutOfBoundsException("start " + start + ", end " + end
+					+ ", length " + length);
+			return new ArrayText(array, offset + start, end - start);
+		}
+
+		public String toString() {
+			return new String(array, offset, length);
+		}
+	}
+
+	/* CharSequence over part of a byte array, which is not copied, holding each byte as
+	 * a character between 0 and 255. */
+	static final class ByteArrayText implements CharSequence {
+		final byte[] array;
+		final int offset;
+		private final int length;
+
+		ByteArrayText(byte[] array, int offset, int length) {
+			this.array = array;
+			this.offset = offset;
+			this.length = length;
+		}
+
+		public int length() {
+			return length;
+		}
+
+		public char charAt(int i) {
+			if (i < 0 || i >= length)
+				throw new IndexOutOfBoundsException("index " + i + ", length " + length);
+			return (char)(array[offset + i] & 0xFF);
+		}
+
+		public CharSequence subSequence(int start, int end) {
+			if (start < 0 || end > length || start > end)
+				throw new IndexOutOfBoundsException("start " + start + ", end " + end
+					+ ", length " + length);
+			return new ByteArrayText(array, offset + start, end - start);
+		}
+
+		public String toString() {
+			return new String(array, offset, length, StandardCharsets.ISO_8859_1);
+		}
+	}
+
+	/* CharSequence over the bytes of a direct ByteBuffer, like BYTEARRAYTEXT. */
+	private static final class ByteBufferText implements CharSequence {
+		private final ByteBuffer buffer;	// the bytes from index 0 to its limit
+
+		ByteBufferText(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		public int length() {
+			return buffer.limit();
+		}
+
+		public char charAt(int i) {
+			return (char)(buffer.get(i) & 0xFF);
+		}
+
+		public CharSequence subSequence(int start, int end) {
+			return new ByteBufferText(buffer.slice(start, end - start));
+		}
+
+		public String toString() {
+			byte[] bytes = new byte[buffer.limit()];
+			buffer.get(0, bytes);
+			return new String(bytes, StandardCharsets.ISO_8859_1);
+		}
+	}
+}
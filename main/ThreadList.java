@@ -0,0 +1,118 @@
+package regex;
+
+/* Ordered set of NFA threads, each identified by the address of its instruction in a
+ * PROGRAM. Membership is tested in constant time with the sparse set technique. Used by
+ * PIKEVM to hold the threads alive at one text position and by LAZYDFA to compute the
+ * contents of its states. */
+class ThreadList {
+	int[] pcs;		// addresses in priority order
+	int[] starts;	// index at which the thread in PCS began matching
+	int[] sparse;	// index into PCS of each address that may be in the set
+	int[] slots;	// capture slots of the thread in PCS[i] from index I * WIDTH, null
+					// unless the threads keep them
+	int width;		// number of capture slots of each thread
+	int size;
+
+	ThreadList(int capacity) {
+		pcs = new int[capacity];
+		starts = new int[capacity];
+		sparse = new int[capacity];
+		size = 0;
+	}
+
+	/* Creates a list whose threads keep WIDTH capture slots each, set by the SAVE
+	 * instructions that they follow. */
+	ThreadList(int capacity, int width) {
+		this(capacity);
+		this.width = width;
+		slots = new int[capacity * width];
+	}
+
+	boolean contains(int pc) {
+		int i = sparse[pc];
+		return i < size && pcs[i] == pc;
+	}
+
+	void add(int pc, int start) {
+		sparse[pc] = size;
+		pcs[size] = pc;
+		starts[size] = start;
+		size++;
+	}
+
+	void clear() {
+		size = 0;
+	}
+
+	/* Adds the thread at PC that began at START, following JMP, SPLIT and LOOP
+	 * instructions of CODE so that the list only needs to be stepped at instructions
+	 * that consume a character or match. STACK is scratch space for addresses still to
+	 * be visited and must hold at least 2 * CODE.LENGTH + 1 elements. */
+	void addClosure(int[] code, int pc, int start, int[] stack) {
+		addClosure(code, pc, start, stack, null);
+	}
+
+	/* Like ADDCLOSURE, also following the ASSERT instructions that AT says hold. Those
+	 * that do not, and all of them if AT is null, stop the thread. */
+	void addClosure(int[] code, int pc, int start, int[] stack, Assertions at) {
+		addClosure(code, pc, start, stack, at, null, 0);
+	}
+
+	/* Like ADDCLOSURE, for a list whose threads keep capture slots. CAPS holds the slots
+	 * of the thread that reached PC, and each thread added gets a copy of them in which
+	 * the SAVE instructions on its way there recorded POS. CAPS is left as it was. */
+	void addClosure(int[] code, int pc, int start, int[] stack, Assertions at, int[] caps,
+			int pos) {
+		int mark = size;	// the threads from MARK on are added by this call
+		int top = 0;
+		stack[top++] = pc;
+		while (top > 0) {
+			pc = stack[--top];
+			if (pc < 0) {
+				// the threads after a SAVE were added, so undo what it recorded
+				caps[-1 - pc] = stack[--top];
+				continue;
+			}
+			if (code[pc] == Program.LOOP && contains(code[pc + 1])
+					&& sparse[code[pc + 1]] >= mark) {
+				// Within one call nothing is consumed, so reaching the end of the loop
+				// after its start means the iteration was empty. Like a backtracking
+				// engine, end the loop rather than dropping the thread. The LOOP is not
+				// added, so that a thread that reached it by consuming characters does
+				// not hide this one.
+				stack[top++] = code[pc + 2];
+				continue;
+			}
+			if (contains(pc))
+				continue;
+			add(pc, start);
+			if (caps != null)
+				System.arraycopy(caps, 0, slots, (size - 1) * width, width);
+			switch (code[pc]) {
+				case Program.JMP:
+					stack[top++] = code[pc + 1];
+					break;
+				case Program.LOOP:
+					stack[top++] = code[pc + 1];
+					break;
+				case Program.SPLIT:
+					// visit the first branch before the second
+					stack[top++] = code[pc + 2];
+					stack[top++] = code[pc + 1];
+					break;
+				case Program.ASSERT:
+					if (at != null && at.holds(code[pc + 1], code[pc + 2], start))
+						stack[top++] = pc + 3;
+					break;
+				case Program.SAVE:
+					if (caps != null) {
+						stack[top++] = caps[code[pc + 1]];
+						stack[top++] = -1 - code[pc + 1];
+						caps[code[pc + 1]] = pos;
+					}
+					stack[top++] = pc + 2;
+					break;
+			}
+		}
+	}
+}
@@ -1,148 +1,154 @@
 package regex;
 
-import java.util.ArrayList;
+enum TokenType { Literal, ClassOpen, ClassClose, Range, Caret, Star, Plus, Question, Alternation,
+	GroupOpen, GroupClose, Dot, Property, Interval, Anchor }
 
-enum TokenType { Literal, ClassOpen, ClassClose, Range, Caret }
+/* Splits the String representation of a regex pattern into TOKENS, which MATCHER.PARSE
+ * then turns into a list of matchers that will find portions of text that match the
+ * pattern. The pattern is read once from start to end. */
+final class Token {
 
-/* Represent different kinds of symbols in a regular expression. The REGEX constructor 
- * transforms the String representation of a regex pattern into an ArrayList of tokens,
- * which is then used by MATCHER.PARSE to create a list of matchers that will find 
- * portions of text that match a given regular expression. */
-class Token {
-	private char c;
-	private TokenType type;
-	private boolean rangeBoundary; // Used by Range constructor to determine if token can
-								   // be used as endpoint of a range.
+	private Token() {
+	}
+
+	/* RETURNS the tokens that represent the input PATTERN. */
+	static Tokens tokenize (String pattern) throws InvalidRegexException{
+		Tokens tokens = new Tokens(pattern.length());
+		int i = 0;
 
-	Token(char c, boolean isLiteral) {
-		this.c = c;
-		if (isLiteral) {
-			type = TokenType.Literal;
-			rangeBoundary = true;
-		} else {
+		while (i < pattern.length()) {
+			char c = pattern.charAt(i++);
 			switch(c) {
 				case '^':
-					type = TokenType.Caret;
-					rangeBoundary = true;
+					tokens.add(c, TokenType.Caret);
 					break;
 				case '-':
-					type = TokenType.Range;
-					rangeBoundary = false;
+					tokens.add(c, TokenType.Range);
 					break;
 				case '[':
-					type = TokenType.ClassOpen;
-					rangeBoundary = false;
+					tokens.add(c, TokenType.ClassOpen);
 					break;
 				case ']':
-					type = TokenType.ClassClose;
-					rangeBoundary = false;
+					tokens.add(c, TokenType.ClassClose);
 					break;
-				default:
-					throw new IllegalArgumentException("unrecognized special character");
-			}
-		}
-	}
-
-	char getChar() {
-		return c;
-	}
-
-	TokenType getType() {
-		return type;
-	}
-
-	boolean isRangeBoundary() {
-		return rangeBoundary;
-	}
-
-	void toLiteral() {
-		type = TokenType.Literal;
-	}
-
-	public String toString() {
-		String s = "";
-		if (type == TokenType.Literal)
-			s += "\\";
-		s += c;
-		return s;
-	}
-
-	/* RETURNS an ArrayList of tokens that represent the input PATTERN. */
-	static ArrayList<Token> tokenize (String pat) throws InvalidRegexException{
-		ArrayList<Character> pattern = new ArrayList<Character>();
-		for (int i = 0; i < pat.length(); i++) 
-			pattern.add(pat.charAt(i));
-		ArrayList<Token> tokens = new ArrayList<Token>();
-
-		while (!pattern.isEmpty()) {
-			char c = pattern.remove(0);
-			switch(c) {
-				case '^':
-				case '-':
-				case '[':
-				case ']':
-					tokens.add(new Token(c, false));
+				case '*':
+					tokens.add(c, TokenType.Star);
+					break;
+				case '+':
+					tokens.add(c, TokenType.Plus);
+					break;
+				case '?':
+					tokens.add(c, TokenType.Question);
+					break;
+				case '|':
+					tokens.add(c, TokenType.Alternation);
+					break;
+				case '(':
+					// "(?:" opens a group that captures nothing, named ":"
+					if (pattern.startsWith("?:", i)) {
+						tokens.add(c, TokenType.GroupOpen, ":");
+						i += 2;
+					} else {
+						tokens.add(c, TokenType.GroupOpen);
+					}
+					break;
+				case ')':
+					tokens.add(c, TokenType.GroupClose);
+					break;
+				case '.':
+					tokens.add(c, TokenType.Dot);
+					break;
+				case '$':
+					tokens.add(c, TokenType.Anchor);
+					break;
+				case '{':
+					i = tokenizeInterval(pattern, i, tokens);
 					break;
 				case '\\':
-					tokenizeEscapes(pattern, tokens);
+					i = tokenizeEscape(pattern, i, tokens);
 					break;
 				default:
-					tokens.add(new Token(c, true));
+					tokens.add(c, TokenType.Literal);
 			}
 		}
 
 		return tokens;
 	}
 
-	/* Creates Literal tokens from escaped characters in PATTERN. Removes those
-	 * characters from PATTERN and adds the literal tokens to TOKENS. */
-	private static void tokenizeEscapes (ArrayList<Character> pattern, ArrayList<Token> tokens) {
-		if (pattern.isEmpty()) // no character after backslash
+	/* Creates an Interval token from the counts that begin at index I of PATTERN, just
+	 * after a '{', if they have one of the forms {n}, {n,} and {n,m}, and adds it to
+	 * TOKENS. The token's name is the text between the braces. Anything else leaves the
+	 * '{' as a literal. Returns the index just after the token. The counts are read up
+	 * to the first character that cannot be part of them, so that a pattern is still
+	 * read in linear time when it has many '{' without a '}'. */
+	private static int tokenizeInterval(String pattern, int i, Tokens tokens) {
+		int close = skipDigits(pattern, i);
+		if (close > i && close < pattern.length() && pattern.charAt(close) == ',')
+			close = skipDigits(pattern, close + 1);
+		if (close == i || close == pattern.length() || pattern.charAt(close) != '}') {
+			tokens.add('{', TokenType.Literal);
+			return i;
+		}
+		tokens.add('{', TokenType.Interval, pattern.substring(i, close));
+		return close + 1;
+	}
+
+	/* Returns the index of the first character of PATTERN at or after index I that is
+	 * not a decimal digit, or the length of PATTERN if there is none. */
+	private static int skipDigits(String pattern, int i) {
+		while (i < pattern.length() && pattern.charAt(i) >= '0' && pattern.charAt(i) <= '9')
+			i++;
+		return i;
+	}
+
+	/* Creates Literal tokens from the escaped characters that begin at index I of
+	 * PATTERN, just after a backslash, and adds them to TOKENS. Returns the index just
+	 * after those characters. */
+	private static int tokenizeEscape (String pattern, int i, Tokens tokens) {
+		if (i == pattern.length()) // no character after backslash
 			throw new InvalidRegexException("missing character after '\\'");
 
-		String hexStr = "";
-		int codePoint = 0;
-		char c = pattern.remove(0);
+		String hexStr;
+		int codePoint;
+		char c = pattern.charAt(i++);
 		switch (c) {
 			case '0':
 				/* Expects octal value n, nn, or mnn where 0 <= n <= 7, 
 				 * and 0 <= m <= 3 */
 				boolean valid = false;
 				int octVal = 0;
-				try {
-					for (int i = 0; i < 3 && octVal < 040; i++) {
-						int n = Integer.parseInt(pattern.get(0) + "", 8);
-						octVal = octVal * 8 + n;
-						pattern.remove(0);
-						valid = true;
-					}
-				} catch (IndexOutOfBoundsException | NumberFormatException e) {
+				for (int n = 0; n < 3 && octVal < 040 && i < pattern.length(); n++) {
+					int digit = pattern.charAt(i) - '0';
+					if (digit < 0 || digit > 7)
+						break;
+					octVal = octVal * 8 + digit;
+					i++;
+					valid = true;
 				}
 
 				if (!valid)
 					throw new InvalidRegexException("invalid octal value");
-				tokens.add(new Token((char)octVal, true));
+				tokens.add((char)octVal, TokenType.Literal);
 				break;
 			case 'x':
 				/* Expects unicode character as hexadecimal in one of two formats*/
-				hexStr = "";
 				try {
-					// remove hex digits from PATTERN and append them to HEXSTR
-					char c1 = pattern.remove(0);
-					if (c1 == '{') {
+					if (i < pattern.length() && pattern.charAt(i) == '{') {
 						// Expects {h...h} where h is a hex digit
-						int idx = pattern.indexOf('}');
-						if (idx == -1)
+						int close = i + 1;
+						while (close < pattern.length()
+								&& Character.digit(pattern.charAt(close), 16) != -1)
+							close++;
+						if (close == pattern.length())
 							throw new InvalidRegexException("missing '}' after hexadecimal value");
-						while (idx > 0) {
-							hexStr += pattern.remove(0);
-							idx--;
-						}
-						pattern.remove(0);
+						if (pattern.charAt(close) != '}')
+							throw new InvalidRegexException("invalid hexadecimal value");
+						hexStr = pattern.substring(i + 1, close);
+						i = close + 1;
 					} else {
 						// Expects hh where h is a hex digit
-						hexStr += c1;
-						hexStr += pattern.remove(0);
+						hexStr = pattern.substring(i, i + 2);
+						i += 2;
 					}
 					
 					// parse HEXSTR to char(s) and add corresponding tokens
@@ -151,7 +157,7 @@ class Token {
 						throw new InvalidRegexException("invalid hexadecimal value");
 					char[] chars = Character.toChars(codePoint);
 					for (char c2 : chars)
-						tokens.add(new Token(c2, true));
+						tokens.add(c2, TokenType.Literal);
 				} catch (IndexOutOfBoundsException | NumberFormatException e) {
 					throw new InvalidRegexException("invalid hexadecimal value");
 				}
@@ -159,70 +165,114 @@ class Token {
 				break;
 			case 'u':
 				/* Expects four digit hexadecimal value */
-				hexStr = "";
-				codePoint = 0;
 				try {
-					for (int i = 0; i < 4; i++)
-						hexStr += pattern.remove(0);
+					hexStr = pattern.substring(i, i + 4);
+					i += 4;
 					codePoint = Integer.parseInt(hexStr, 16);
 				} catch (IndexOutOfBoundsException | NumberFormatException e) {
 					throw new InvalidRegexException("invalid hexadecimal value");
 				}
-				tokens.add(new Token((char)codePoint, true));
+				tokens.add((char)codePoint, TokenType.Literal);
 				break;
 			case 'c':
 				/* Expects A-Z or a-z for ASCII control character. */
-				try {
-					char ctrlChar = pattern.remove(0);
-					if (ctrlChar < 'A' || ctrlChar > 'z' || (ctrlChar > 'Z' && ctrlChar < 'a'))
-						throw new InvalidRegexException("invalid control character");
-					// convert a-z to A-Z, then convert A-Z to 0x01 - 0x1A
-					tokens.add(new Token((char)(Character.toUpperCase(ctrlChar) - '@'), true));
-				} catch (IndexOutOfBoundsException e) {
+				if (i == pattern.length())
 					throw new InvalidRegexException("missing control character");
-				}
+				char ctrlChar = pattern.charAt(i++);
+				if (ctrlChar < 'A' || ctrlChar > 'z' || (ctrlChar > 'Z' && ctrlChar < 'a'))
+					throw new InvalidRegexException("invalid control character");
+				// convert a-z to A-Z, then convert A-Z to 0x01 - 0x1A
+				tokens.add((char)(Character.toUpperCase(ctrlChar) - '@'), TokenType.Literal);
 				break;
 			case 't':
-				tokens.add(new Token('\t', true));
+				tokens.add('\t', TokenType.Literal);
 				break;
 			case 'n':
-				tokens.add(new Token('\n', true));
+				tokens.add('\n', TokenType.Literal);
 				break;
 			case 'r':
-				tokens.add(new Token('\r', true));
+				tokens.add('\r', TokenType.Literal);
 				break;
 			case 'f':
-				tokens.add(new Token('\f', true));
+				tokens.add('\f', TokenType.Literal);
 				break;
 			case 'a':
-				tokens.add(new Token('\u0007', true));
+				tokens.add('\u0007', TokenType.Literal);
 				break;
 			case 'e':
-				tokens.add(new Token('\u001B', true));
+				tokens.add('\u001B', TokenType.Literal);
 				break;
 			case 'Q':
 				/* turn characters in PATTERN into Literal tokens until finding
 				 * "\E" or until end of PATTERN */
-				while (!pattern.isEmpty()) {
-					char cc = pattern.remove(0);
-					if (cc == '\\') {
-						if (!pattern.isEmpty() && pattern.get(0) == 'E') {
-							pattern.remove(0);
-							break;
-						} else {
-							tokens.add(new Token(cc, true));
-						}
-					} else {
-						tokens.add(new Token(cc, true));
-					}
-				}
+				int quoteEnd = pattern.indexOf("\\E", i);
+				if (quoteEnd == -1)
+					quoteEnd = pattern.length();
+				for (; i < quoteEnd; i++)
+					tokens.add(pattern.charAt(i), TokenType.Literal);
+				i = Math.min(quoteEnd + 2, pattern.length());
 				break;
 			case 'E':
 				throw new InvalidRegexException("missing '\\Q' before '\\E'");
+			case 'A':
+			case 'z':
+			case 'Z':
+			case 'b':
+			case 'B':
+				tokens.add(c, TokenType.Anchor);
+				break;
+			case 'd':
+			case 'D':
+				tokenizeClass(new char[] {'0', '9'}, c == 'D', tokens);
+				break;
+			case 'w':
+			case 'W':
+				tokenizeClass(new char[] {'a', 'z', 'A', 'Z', '_', '_', '0', '9'}, c == 'W',
+					tokens);
+				break;
+			case 's':
+			case 'S':
+				tokenizeClass(new char[] {' ', ' ', '\t', '\r'}, c == 'S', tokens);
+				break;
+			case 'p':
+			case 'P':
+				/* Expects a one letter property name, or a name between braces. The
+				 * token is 'P' for the characters that do not have the property. */
+				String name;
+				if (i < pattern.length() && pattern.charAt(i) == '{') {
+					int close = pattern.indexOf('}', i);
+					if (close == -1)
+						throw new InvalidRegexException("missing '}' after property name");
+					name = pattern.substring(i + 1, close);
+					i = close + 1;
+				} else {
+					name = pattern.substring(i, Math.min(i + 1, pattern.length()));
+					i += name.length();
+				}
+				if (name.isEmpty())
+					throw new InvalidRegexException("missing property name");
+				tokens.add(c, TokenType.Property, name);
+				break;
 			default:
 				/* If escaped character has no special meaning, treat as a literal. */
-				tokens.add(new Token(c, true));
+				tokens.add(c, TokenType.Literal);
 		}
+		return i;
 	}
-}
 
+	/* Adds the tokens of a character class made of RANGES, pairs of inclusive bounds,
+	 * negated if NEGATED is true, for the escapes such as \d that stand for one. */
+	private static void tokenizeClass(char[] ranges, boolean negated, Tokens tokens) {
+		tokens.add('[', TokenType.ClassOpen);
+		if (negated)
+			tokens.add('^', TokenType.Caret);
+		for (int i = 0; i < ranges.length; i += 2) {
+			tokens.add(ranges[i], TokenType.Literal);
+			if (ranges[i + 1] != ranges[i]) {
+				tokens.add('-', TokenType.Range);
+				tokens.add(ranges[i + 1], TokenType.Literal);
+			}
+		}
+		tokens.add(']', TokenType.ClassClose);
+	}
+}
@@ -0,0 +1,132 @@
+package regex;
+
+import java.util.Arrays;
+
+/* The tokens of a regex pattern, consumed from the front by the parser. The character
+ * and type of each token are kept in parallel arrays and the front is an index into
+ * them, so that looking at or removing a token takes constant time and the parser runs
+ * in time linear in the length of the pattern. Tokens are addressed relative to the
+ * front: token 0 is the next one to be parsed. */
+class Tokens {
+	private char[] chars;
+	private TokenType[] types;
+	private String[] names;	// name of each PROPERTY token, counts of each INTERVAL
+							// token and ":" for a GROUPOPEN token that begins a
+							// group that captures nothing, null for the others
+	private int start;		// index in CHARS and TYPES of the front token
+	private int end;		// index after the last token
+	private int groups;		// capturing groups numbered so far
+
+	Tokens(int capacity) {
+		chars = new char[Math.max(capacity, 1)];
+		types = new TokenType[chars.length];
+		names = new String[chars.length];
+		start = 0;
+		end = 0;
+	}
+
+	/* Adds a token at the back. */
+	void add(char c, TokenType type) {
+		add(c, type, null);
+	}
+
+	/* Adds a token at the back with NAME, the name of a property, the text between
+	 * the braces of an interval or ":" for a group that captures nothing. */
+	void add(char c, TokenType type, String name) {
+		if (end == chars.length) {
+			chars = Arrays.copyOf(chars, 2 * chars.length);
+			types = Arrays.copyOf(types, chars.length);
+			names = Arrays.copyOf(names, chars.length);
+		}
+		chars[end] = c;
+		types[end] = type;
+		names[end] = name;
+		end++;
+	}
+
+	/* Returns the number of tokens left. */
+	int size() {
+		return end - start;
+	}
+
+	char getChar(int i) {
+		return chars[index(i)];
+	}
+
+	TokenType getType(int i) {
+		return types[index(i)];
+	}
+
+	String getName(int i) {
+		return names[index(i)];
+	}
+
+	/* Returns true if token I can be used as an endpoint of a range. */
+	boolean isRangeBoundary(int i) {
+		switch (getType(i)) {
+			case Range:
+			case ClassOpen:
+			case ClassClose:
+			case Property:
+			case Interval:
+				return false;
+			case GroupOpen:
+				// "(?:" stands for three characters
+				return getName(i) == null;
+			default:
+				return true;
+		}
+	}
+
+	/* Returns true if token I repeats the expression before it. */
+	boolean isQuantifier(int i) {
+		TokenType type = getType(i);
+		return type == TokenType.Star || type == TokenType.Plus || type == TokenType.Question
+			|| type == TokenType.Interval;
+	}
+
+	/* Returns the number of the next capturing group, counting them from 1 in the order
+	 * of their opening parentheses. */
+	int nextGroup() {
+		return ++groups;
+	}
+
+	/* Returns the number of capturing groups numbered by NEXTGROUP. */
+	int getGroups() {
+		return groups;
+	}
+
+	/* Makes token I stand for its character. */
+	void toLiteral(int i) {
+		types[index(i)] = TokenType.Literal;
+	}
+
+	/* Removes the front token. */
+	void remove() {
+		index(0);
+		start++;
+	}
+
+	private int index(int i) {
+		if (i < 0 || i >= end - start)
+			throw new IndexOutOfBoundsException("token " + i + ", size " + (end - start));
+		return start + i;
+	}
+
+	public String toString() {
+		StringBuilder s = new StringBuilder();
+		for (int i = start; i < end; i++) {
+			if (types[i] == TokenType.Literal || types[i] == TokenType.Property
+					|| (types[i] == TokenType.Anchor && chars[i] != '$'))
+				s.append('\\');
+			s.append(chars[i]);
+			if (types[i] == TokenType.Property)
+				s.append('{').append(names[i]).append('}');
+			else if (types[i] == TokenType.Interval)
+				s.append(names[i]).append('}');
+			else if (types[i] == TokenType.GroupOpen && names[i] != null)
+				s.append('?').append(names[i]);
+		}
+		return s.toString();
+	}
+}
@@ -0,0 +1,210 @@
+package regex;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntPredicate;
+
+/* A Unicode property named by a \p{NAME} escape: a general category such as L or Nd, a
+ * script such as IsGreek, a block such as InGreek, or a binary property such as
+ * IsAlphabetic. The properties of one kind share a CODEPOINTTRIE that maps every code
+ * point to its category, script or block, which is built from java.lang.Character the
+ * first time a property of that kind is used, so that the tables of the kinds never
+ * used are never built. Membership then takes one lookup in the trie. */
+final class UnicodeProperty {
+	// names of the general categories, indexed by the values of Character.getType
+	private static final String[] CATEGORIES = {"Cn", "Lu", "Ll", "Lt", "Lm", "Lo", "Mn",
+		"Me", "Mc", "Nd", "Nl", "No", "Zs", "Zl", "Zp", "Cc", "Cf", null, "Co", "Cs", "Pd",
+		"Ps", "Pe", "Pc", "Po", "Sm", "Sc", "Sk", "So", "Pi", "Pf"};
+
+	// properties already resolved, by name
+	private static final ConcurrentHashMap<String, UnicodeProperty> RESOLVED =
+		new ConcurrentHashMap<String, UnicodeProperty>();
+
+	private final CodePointTrie trie;
+	private final long[] values;		// bit V is set if the code points whose value in
+										// TRIE is V are members
+	private volatile CodePointSet set;	// the members, computed on first use
+
+	private UnicodeProperty(CodePointTrie trie, long[] values) {
+		this.trie = trie;
+		this.values = values;
+	}
+
+	/* Returns the property named NAME, as written between the braces of \p{NAME}.
+	 * Throws INVALIDREGEXEXCEPTION if there is no such property. */
+	static UnicodeProperty forName(String name) {
+		UnicodeProperty property = RESOLVED.get(name);
+		if (property == null) {
+			property = resolve(name);
+			if (property == null)
+				throw new InvalidRegexException("unknown property '" + name + "'");
+			RESOLVED.putIfAbsent(name, property);
+		}
+		return property;
+	}
+
+	/* Returns true if CODEPOINT has this property. */
+	boolean contains(int codePoint) {
+		int value = trie.get(codePoint);
+		return value >> 6 < values.length && (values[value >> 6] & (1L << value)) != 0;
+	}
+
+	/* Returns the code points that have this property. */
+	CodePointSet getSet() {
+		CodePointSet result = set;
+		if (result == null) {
+			result = CodePointSet.of(trie.members(values));
+			set = result;
+		}
+		return result;
+	}
+
+	/* Names are read as in java.util.regex: a category is written as L or IsL, a script
+	 * as IsGreek, a block as InGreek, a binary property as IsAlphabetic, and any of them
+	 * as KEY=VALUE with a key such as gc, sc or blk. Only the names of categories are
+	 * case sensitive. */
+	private static UnicodeProperty resolve(String name) {
+		int equals = name.indexOf('=');
+		if (equals != -1) {
+			String key = name.substring(0, equals).toLowerCase(Locale.ROOT);
+			String value = name.substring(equals + 1);
+			switch (key) {
+				case "gc":
+				case "general_category":
+					return category(value);
+				case "sc":
+				case "script":
+					return script(value);
+				case "blk":
+				case "block":
+					return block(value);
+				default:
+					return null;
+			}
+		}
+
+		if (name.startsWith("In"))
+			return block(name.substring(2));
+		if (name.startsWith("Is")) {
+			String rest = name.substring(2);
+			UnicodeProperty property = category(rest);
+			if (property == null)
+				property = binary(rest);
+			return property != null ? property : script(rest);
+		}
+		return category(name);
+	}
+
+	/* Returns the general category NAME, or the union of the categories whose name
+	 * begins with NAME if it is one letter long, or null if there is none. */
+	private static UnicodeProperty category(String name) {
+		long[] values = new long[1];
+		for (int type = 0; type < CATEGORIES.length; type++) {
+			String category = CATEGORIES[type];
+			if (category != null && (category.equals(name) || (name.length() == 1
+					&& category.charAt(0) == name.charAt(0))))
+				values[0] |= 1L << type;
+		}
+		if (name.equals("LC") || name.equals("L&"))
+			values[0] = (1L << Character.UPPERCASE_LETTER) | (1L << Character.LOWERCASE_LETTER)
+				| (1L << Character.TITLECASE_LETTER);
+		return values[0] == 0 ? null : new UnicodeProperty(Categories.TRIE, values);
+	}
+
+	private static UnicodeProperty script(String name) {
+		Character.UnicodeScript script;
+		try {
+			script = Character.UnicodeScript.forName(name);
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+		return new UnicodeProperty(Scripts.TRIE, only(script.ordinal()));
+	}
+
+	private static UnicodeProperty block(String name) {
+		Character.UnicodeBlock block;
+		try {
+			block = Character.UnicodeBlock.forName(name);
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+		Integer value = Blocks.VALUES.get(block);
+		return new UnicodeProperty(Blocks.TRIE, value == null ? new long[1] : only(value));
+	}
+
+	/* Returns a binary property, whose table is built for it alone, or null if there is
+	 * no binary property NAME. */
+	private static UnicodeProperty binary(String name) {
+		IntPredicate members;
+		switch (name.toUpperCase(Locale.ROOT).replace("_", "").replace(" ", "")) {
+			case "ALPHABETIC":
+				members = Character::isAlphabetic;
+				break;
+			case "IDEOGRAPHIC":
+				members = Character::isIdeographic;
+				break;
+			case "LETTER":
+				members = Character::isLetter;
+				break;
+			case "LOWERCASE":
+				members = Character::isLowerCase;
+				break;
+			case "UPPERCASE":
+				members = Character::isUpperCase;
+				break;
+			case "TITLECASE":
+				members = Character::isTitleCase;
+				break;
+			case "DIGIT":
+				members = Character::isDigit;
+				break;
+			case "EMOJI":
+				members = Character::isEmoji;
+				break;
+			case "WHITESPACE":
+				// the separators, the controls from tab to carriage return, and NEL
+				members = c -> Character.isSpaceChar(c) || (c >= '\t' && c <= '\r')
+					|| c == 0x85;
+				break;
+			default:
+				return null;
+		}
+		return new UnicodeProperty(CodePointTrie.build(c -> members.test(c) ? 1 : 0),
+			only(1));
+	}
+
+	private static long[] only(int value) {
+		long[] values = new long[(value >> 6) + 1];
+		values[value >> 6] = 1L << value;
+		return values;
+	}
+
+	/* Each of the following is initialized the first time it is used. */
+
+	private static final class Categories {
+		static final CodePointTrie TRIE = CodePointTrie.build(Character::getType);
+	}
+
+	private static final class Scripts {
+		static final CodePointTrie TRIE = CodePointTrie.build(
+			c -> Character.UnicodeScript.of(c).ordinal());
+	}
+
+	private static final class Blocks {
+		// blocks numbered from 1 in the order of their first code point, 0 for none
+		static final HashMap<Character.UnicodeBlock, Integer> VALUES =
+			new HashMap<Character.UnicodeBlock, Integer>();
+		static final CodePointTrie TRIE = CodePointTrie.build(c -> {
+			Character.UnicodeBlock block = Character.UnicodeBlock.of(c);
+			if (block == null)
+				return 0;
+			Integer value = VALUES.get(block);
+			if (value == null) {
+				value = VALUES.size() + 1;
+				VALUES.put(block, value);
+			}
+			return value;
+		});
+	}
+}
@@ -0,0 +1,188 @@
+package regex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/* Translates characters and sets of code points into the UTF-8 bytes that encode them,
+ * so that a pattern can be compiled into a program that matches UTF-8 text without
+ * decoding it. The engines read such a text one byte at a time, each byte as a
+ * character between 0 and 255. */
+final class Utf8 {
+	private static final int[] MAX = {0x7F, 0x7FF, 0xFFFF};	// largest code point encoded
+															// in 1, 2 and 3 bytes
+
+	private Utf8() {
+	}
+
+	/* Returns the UTF-8 encoding of CHARS, one byte per element, or null if CHARS holds
+	 * a surrogate that is not part of a pair, which UTF-8 cannot encode. */
+	static char[] encode(char[] chars) {
+		char[] bytes = new char[4 * chars.length];
+		int n = 0;
+		for (int i = 0; i < chars.length; i++) {
+			int c = chars[i];
+			if (Character.isHighSurrogate(chars[i]) && i + 1 < chars.length
+					&& Character.isLowSurrogate(chars[i + 1]))
+				c = Character.toCodePoint(chars[i], chars[++i]);
+			else if (Character.isSurrogate(chars[i]))
+				return null;
+			n = encode(c, bytes, n);
+		}
+		return Arrays.copyOf(bytes, n);
+	}
+
+	/* Stores the UTF-8 encoding of CODEPOINT in BYTES from index N. Returns the index
+	 * after it. */
+	private static int encode(int codePoint, char[] bytes, int n) {
+		int length = length(codePoint);
+		if (length == 1) {
+			bytes[n] = (char)codePoint;
+			return n + 1;
+		}
+		// the leading byte holds LENGTH one bits, and each other byte 10 and six bits
+		for (int i = length - 1; i > 0; i--) {
+			bytes[n + i] = (char)(0x80 | (codePoint & 0x3F));
+			codePoint >>= 6;
+		}
+		bytes[n] = (char)((0xFF00 >> length) & 0xFF | codePoint);
+		return n + length;
+	}
+
+	/* Returns the code point whose UTF-8 encoding begins at index POS of TEXT, read one
+	 * byte per character, without reading at or after END. Returns -1 if the bytes
+	 * there are not a valid encoding, and -2 if they may be the start of one that END
+	 * cuts short. */
+	static int decode(CharSequence text, int pos, int end) {
+		int c = Text.charAt(text, pos);
+		if (c < 0x80)
+			return c;
+		int length = c >= 0xF0 ? 4 : c >= 0xE0 ? 3 : c >= 0xC0 ? 2 : 1;
+		if (length == 1 || c > 0xF4)
+			return -1;
+		int codePoint = c & (0x7F >> length);
+		for (int i = 1; i < length; i++) {
+			if (pos + i >= end)
+				return -2;
+			int b = Text.charAt(text, pos + i);
+			if ((b & 0xC0) != 0x80)
+				return -1;
+			codePoint = codePoint << 6 | b & 0x3F;
+		}
+		// overlong encodings, surrogates and values past the last code point
+		if (length(codePoint) != length || codePoint > Character.MAX_CODE_POINT
+				|| codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE)
+			return -1;
+		return codePoint;
+	}
+
+	/* Returns the number of bytes that encode CODEPOINT. */
+	private static int length(int codePoint) {
+		int length = 1;
+		while (length <= MAX.length && codePoint > MAX[length - 1])
+			length++;
+		return length;
+	}
+
+	/* Returns the code points a single character of SET stands for in UTF-8 text, as
+	 * sorted pairs of inclusive bounds. Surrogates, which UTF-8 cannot encode, are left
+	 * out. A SET holding every surrogate, as those of . and of negated classes do, also
+	 * holds every supplementary code point, each of which it matches as two
+	 * surrogates in a CharSequence. */
+	static int[] codePoints(CharSet set) {
+		int[] ranges = set.getRanges();
+		int[] result = new int[2 * ranges.length + 2];
+		int n = 0;
+		boolean surrogates = false;
+		for (int i = 0; i < ranges.length; i += 2) {
+			// the part of the range below the surrogates, then the part above them
+			if (ranges[i] < Character.MIN_SURROGATE) {
+				result[n++] = ranges[i];
+				result[n++] = Math.min(ranges[i + 1], Character.MIN_SURROGATE - 1);
+			}
+			if (ranges[i + 1] > Character.MAX_SURROGATE) {
+				result[n++] = Math.max(ranges[i], Character.MAX_SURROGATE + 1);
+				result[n++] = ranges[i + 1];
+			}
+			surrogates |= ranges[i] <= Character.MIN_SURROGATE
+				&& ranges[i + 1] >= Character.MAX_SURROGATE;
+		}
+		if (surrogates) {
+			result[n++] = Character.MIN_SUPPLEMENTARY_CODE_POINT;
+			result[n++] = Character.MAX_CODE_POINT;
+		}
+		return Arrays.copyOf(result, n);
+	}
+
+	/* Returns true if CODEPOINT is one of those that a single character of SET stands for
+	 * in UTF-8 text, as CODEPOINTS finds them. */
+	static boolean contains(CharSet set, int codePoint) {
+		if (codePoint <= CharSet.MAX)
+			return set.contains(codePoint) && !Character.isSurrogate((char)codePoint);
+		int[] ranges = set.getRanges();
+		for (int i = 0; i < ranges.length; i += 2) {
+			if (ranges[i] <= Character.MIN_SURROGATE && ranges[i + 1] >= Character.MAX_SURROGATE)
+				return true;
+		}
+		return false;
+	}
+
+	/* Returns the sequences of byte ranges that encode the code points in RANGES, sorted
+	 * pairs of inclusive bounds without surrogates. Each sequence holds one pair of
+	 * inclusive bounds per byte, and matches the encoding of some of the code points
+	 * when each of its bytes is within its bounds. */
+	static ArrayList<int[]> sequences(int[] ranges) {
+		ArrayList<int[]> sequences = new ArrayList<int[]>();
+		int[] stack = new int[64];
+		for (int r = 0; r < ranges.length; r += 2) {
+			int n = 0;
+			stack[n++] = ranges[r];
+			stack[n++] = ranges[r + 1];
+			while (n > 0) {
+				int end = stack[--n];
+				int start = stack[--n];
+				int split = split(start, end);
+				if (split != -1) {
+					// the lower part is taken from the stack first
+					stack[n++] = split + 1;
+					stack[n++] = end;
+					stack[n++] = start;
+					stack[n++] = split;
+					continue;
+				}
+				char[] first = new char[4];
+				char[] last = new char[4];
+				int length = encode(start, first, 0);
+				encode(end, last, 0);
+				int[] sequence = new int[2 * length];
+				for (int i = 0; i < length; i++) {
+					sequence[2 * i] = first[i];
+					sequence[2 * i + 1] = last[i];
+				}
+				sequences.add(sequence);
+			}
+		}
+		return sequences;
+	}
+
+	/* Returns the code point at which the range from START to END must be split for the
+	 * encodings of its code points to be the bytes between those of START and those of
+	 * END, or -1 if it need not be. That is the case when all of them have the same
+	 * length, and every trailing byte but the last of them spans its whole 64 values
+	 * wherever the bytes before it change. */
+	private static int split(int start, int end) {
+		for (int max : MAX) {
+			if (start <= max && max < end)
+				return max;
+		}
+		for (int i = 1; i < length(start); i++) {
+			int low = (1 << (6 * i)) - 1;	// bits held by the last I bytes
+			if ((start & ~low) != (end & ~low)) {
+				if ((start & low) != 0)
+					return start | low;
+				if ((end & low) != low)
+					return (end & ~low) - 1;
+			}
+		}
+		return -1;
+	}
+}
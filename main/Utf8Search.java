@@ -0,0 +1,129 @@
+package regex;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/* Searches UTF-8 text held in a byte array or a ByteBuffer for a given regular
+ * expression pattern without decoding it. The pattern is compiled into a program that
+ * matches the bytes that encode its matches, which the engines run over the text one
+ * byte at a time, so matches are reported as byte offsets. The text is read in place:
+ * it is not copied, so it must not change while it is being searched.
+ *
+ * A single character matcher such as . or [^a] matches one code point, which takes
+ * from one to four bytes. Bytes that are not part of valid UTF-8 are matched by none
+ * of them, and neither are the encodings of surrogates. */
+public class Utf8Search {
+
+	private Regex pattern;		// matches the UTF-8 encoding of the pattern's matches
+	private CharSequence text;	// the bytes searched, one character per byte
+	private byte[] bytes;		// the bytes of TEXT, if they are in an array
+	private int start;			// index at which the searched region of TEXT begins
+	private int end;			// index at which the searched region of TEXT ends
+	private int pos;			// current search position in TEXT
+	private boolean matched;	// true if the last invocation of FIND found a match
+	private String match;		// last match found, decoded when it is first asked for
+	private int[] bounds;		// start and end offsets of the last match found
+	private Scratch scratch;	// space used by the searches, kept from one to the next
+
+	public Utf8Search(Regex r, byte[] bytes) {
+		this(r, bytes, 0, bytes.length);
+	}
+
+	/* Creates a Utf8Search that only looks for matches within the region of BYTES that
+	 * begins at offset START and ends before offset END. Matches are reported with
+	 * offsets into the whole of BYTES. */
+	public Utf8Search(Regex r, byte[] bytes, int start, int end) {
+		if (start < 0 || end > bytes.length || start > end)
+			throw new IndexOutOfBoundsException("start " + start + ", end " + end
+				+ ", length " + bytes.length);
+		pattern = r.utf8();
+		text = Text.wrap(bytes, 0, bytes.length);
+		this.bytes = bytes;
+		this.start = start;
+		this.end = end;
+		pos = start;
+		bounds = new int[2];
+		scratch = new Scratch();
+	}
+
+	/* Creates a Utf8Search of the bytes between the position and the limit of BUFFER,
+	 * which is not modified. Matches are reported with offsets from its position. */
+	public Utf8Search(Regex r, ByteBuffer buffer) {
+		pattern = r.utf8();
+		text = Text.wrap(buffer);
+		start = 0;
+		end = text.length();
+		pos = 0;
+		bounds = new int[2];
+		scratch = new Scratch();
+	}
+
+	/* Returns true if there are bytes at or after POS that encode a match of PATTERN.
+	 * Returns false otherwise. Subsequent calls to FIND will begin searching after the
+	 * location of the previous match. */
+	public boolean find() {
+		match = null;
+		if (pos <= end && pattern.search(text, start, pos, end, end + 1, bounds, scratch)) {
+			matched = true;
+			// an empty match must not be found again at the same position, nor within the
+			// bytes of the character after it
+			pos = bounds[1];
+			if (bounds[1] == bounds[0]) {
+				do
+					pos++;
+				while (pos < end && (Text.charAt(text, pos) & 0xC0) == 0x80);
+			}
+			return true;
+		}
+
+		pos = end + 1;
+		matched = false;
+		return false;
+	}
+
+	/* Finds the next matches, as FIND would, until OFFSETS is full or there are no more,
+	 * and stores the start and end offsets of each one in two consecutive elements of
+	 * OFFSETS. Returns the number of matches found. */
+	public int findAll(int[] offsets) {
+		int n = 0;
+		while (2 * n + 1 < offsets.length && find()) {
+			offsets[2 * n] = bounds[0];
+			offsets[2 * n + 1] = bounds[1];
+			n++;
+		}
+		return n;
+	}
+
+	/* Returns the byte offset at which the match found by the last invocation of FIND
+	 * begins. */
+	public int start() {
+		if (!matched)
+			throw new IllegalStateException("no match");
+		return bounds[0];
+	}
+
+	/* Returns the byte offset just after the end of the match found by the last
+	 * invocation of FIND. */
+	public int end() {
+		if (!matched)
+			throw new IllegalStateException("no match");
+		return bounds[1];
+	}
+
+	/* Returns the match that was found by the last invocation of FIND, decoded from
+	 * UTF-8. If the last invocation was not successful, returns NULL. */
+	public String getResult() {
+		if (matched && match == null) {
+			if (bytes != null) {
+				match = new String(bytes, bounds[0], bounds[1] - bounds[0],
+					StandardCharsets.UTF_8);
+			} else {
+				// the bytes are read as ISO-8859-1 characters, one per byte
+				String chars = text.subSequence(bounds[0], bounds[1]).toString();
+				match = new String(chars.getBytes(StandardCharsets.ISO_8859_1),
+					StandardCharsets.UTF_8);
+			}
+		}
+		return match;
+	}
+}
@@ -0,0 +1,58 @@
+package regex;
+
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/* CANDIDATESCANNER that tests as many characters at once as fit in a vector register of
+ * the processor, 8 to 32 of them, when the text is backed by a char array. Only loaded
+ * when the jdk.incubator.vector module is present. */
+final class VectorScanner extends CandidateScanner {
+	private static final VectorSpecies<Short> SPECIES = ShortVector.SPECIES_PREFERRED;
+
+	private final short[] lows;		// lower bound of each range
+	private final short[] spans;	// upper bound minus lower bound of each range
+
+	private VectorScanner(CharSet set) {
+		super(set);
+		lows = new short[ranges.length / 2];
+		spans = new short[lows.length];
+		for (int i = 0; i < lows.length; i++) {
+			lows[i] = (short)ranges[2 * i];
+			spans[i] = (short)(ranges[2 * i + 1] - ranges[2 * i]);
+		}
+	}
+
+	/* Returns a VECTORSCANNER for SET. Declared to return a CANDIDATESCANNER, so that
+	 * the code calling it can be verified without loading this class. */
+	static CandidateScanner create(CharSet set) {
+		return new VectorScanner(set);
+	}
+
+	int next(CharSequence text, int from, int end) {
+		if (!(text instanceof Text.ArrayText) || from >= end)
+			return super.next(text, from, end);
+
+		Text.ArrayText a = (Text.ArrayText)text;
+		char[] array = a.array;
+		int i = from;
+		int bound = from + SPECIES.loopBound(end - from);
+		for (; i < bound; i += SPECIES.length()) {
+			ShortVector v = ShortVector.fromCharArray(SPECIES, array, a.offset + i);
+			// C is in a range when C - LOW, taken as unsigned, is at most its span
+			VectorMask<Short> found = v.sub(lows[0])
+				.compare(VectorOperators.UNSIGNED_LE, spans[0]);
+			for (int r = 1; r < lows.length; r++)
+				found = found.or(v.sub(lows[r]).compare(VectorOperators.UNSIGNED_LE, spans[r]));
+			if (found.anyTrue())
+				return i + found.firstTrue();
+		}
+
+		for (; i < end; i++) {
+			if (contains(array[a.offset + i]))
+				return i;
+		}
+		return -1;
+	}
+}
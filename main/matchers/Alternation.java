@@ -0,0 +1,38 @@
+package regex;
+
+import java.util.ArrayList;
+
+/* Matches any one of several alternatives. When more than one alternative matches,
+ * the one that appears first in the pattern is preferred. */
+class Alternation extends Or {
+
+	Alternation(ArrayList<Sequence> alternatives) {
+		matchers.addAll(alternatives);
+	}
+
+	/* Compiles alternatives a, b, ..., z into
+	 *     SPLIT La, Lb;  La: a; JMP end;  Lb: SPLIT Lb1, Lc; Lb1: b; JMP end;  ...  z; end: */
+	void compile(Program prog) {
+		int[] jumps = new int[matchers.size() - 1];
+		for (int i = 0; i < jumps.length; i++) {
+			int split = prog.emit(Program.SPLIT, 0, 0);
+			prog.patch(split, 0, prog.next());
+			matchers.get(i).compile(prog);
+			jumps[i] = prog.emit(Program.JMP, 0);
+			prog.patch(split, 1, prog.next());
+		}
+		matchers.get(jumps.length).compile(prog);
+		for (int jump : jumps)
+			prog.patch(jump, 0, prog.next());
+	}
+
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < matchers.size(); i++) {
+			if (i > 0)
+				sb.append('|');
+			sb.append(matchers.get(i).toString());
+		}
+		return sb.toString();
+	}
+}
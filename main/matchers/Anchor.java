@@ -0,0 +1,55 @@
+package regex;
+
+/* Matches the empty string at a position of the text that it describes: ^ and \A where
+ * the text begins, \z where it ends, $ and \Z where it ends or before a line terminator
+ * that ends it, \b at a word boundary and \B elsewhere. Word characters are those of
+ * \w. The bounds of the region searched are where the text begins and ends. */
+class Anchor extends Matcher {
+	private char c;		// the character of the anchor: '^', '$', or the letter after '\'
+	private int kind;	// the assertion of PROGRAM that it compiles to
+
+	/* Creates the anchor of the CARET or ANCHOR token at the front of TOKENS, and
+	 * removes it. */
+	Anchor(Tokens tokens) {
+		if (tokens.size() == 0 || (tokens.getType(0) != TokenType.Caret
+				&& tokens.getType(0) != TokenType.Anchor))
+			throw new IllegalArgumentException("No anchor token");
+		c = tokens.getChar(0);
+		tokens.remove();
+		switch (c) {
+			case '^':
+			case 'A':
+				kind = Program.BEGIN;
+				break;
+			case 'z':
+				kind = Program.END;
+				break;
+			case '$':
+			case 'Z':
+				kind = Program.END_LINE;
+				break;
+			case 'b':
+				kind = Program.WORD_BOUNDARY;
+				break;
+			default:
+				kind = Program.NOT_WORD_BOUNDARY;
+		}
+	}
+
+	/* Emits the ASSERT of KIND. A reversed program would need the assertions of the
+	 * text read backwards, and is never compiled for a pattern that has them. */
+	void compile(Program prog) {
+		if (prog.isReversed())
+			throw new IllegalStateException("anchor in a reversed program");
+		prog.emit(Program.ASSERT, kind, 0);
+	}
+
+	/* Returns true if this anchor only matches where the text begins. */
+	boolean isBegin() {
+		return kind == Program.BEGIN;
+	}
+
+	public String toString() {
+		return c == '^' || c == '$' ? String.valueOf(c) : "\\" + c;
+	}
+}
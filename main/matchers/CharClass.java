@@ -1,87 +1,230 @@
 package regex;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 
+/* Matches a single character that is a member of the class. The members are given by
+ * the LITERAL, RANGE, PROPERTY and nested CHARCLASS matchers in MATCHERS, which are
+ * compiled into SET when the class is constructed so that each text character costs one
+ * lookup. A class with a PROPERTY among its members matches code points instead, like
+ * the PROPERTY, and also gets CODEPOINTS. */
 class CharClass extends Or {
 	private boolean negated;
+	private CharSet set;	// members of the class, with negation already applied
+	private CodePointSet codePoints;	// members, if the class matches code points
+	private CaseFolding folding;	// folding applied to the members, null if none
+	private volatile CharClass folded;	// this class with its members folded, built by
+										// FOLDED
 
-	CharClass(ArrayList<Token> tokens) {
-		Token curr, next;
-		if (tokens.size() == 0 || tokens.get(0).getType() != TokenType.ClassOpen)
+	CharClass(Tokens tokens) {
+		if (tokens.size() == 0 || tokens.getType(0) != TokenType.ClassOpen)
 			throw new IllegalArgumentException("No open char class token");
-		tokens.remove(0);
+		tokens.remove();
 		
 		// ']', '-', '^' behave differently when they are the first character 
 		// in the character class
 		if (tokens.size() == 0)
 			throw new InvalidRegexException("character class not closed");
-		curr = tokens.get(0);
 		// set NEGATED to true if '^' is first token, false otherwise
-		if (curr.getType() == TokenType.Caret) {
-			tokens.remove(0);
-			curr = tokens.get(0);
+		if (tokens.getType(0) == TokenType.Caret) {
+			tokens.remove();
+			if (tokens.size() == 0)
+				throw new InvalidRegexException("character class not closed");
 			negated = true;
 		} else {
 			negated = false;
 		}
 		// if ']' or '-' are first token, change them to literals
-		switch (curr.getType()) {
+		switch (tokens.getType(0)) {
 			case ClassClose:
 			case Range:
-				curr.toLiteral();
+				tokens.toLiteral(0);
 				break;
 		}
 
 		// Add the rest of the tokens to MATCHERS until encountering a CLASSCLOSE Token
-		while (tokens.size() > 1 && curr.getType() != TokenType.ClassClose) {
+		while (tokens.size() > 1 && tokens.getType(0) != TokenType.ClassClose) {
 			/* Check if the next token is a RANGE token. If so, construct a RANGE
 			 * matcher from this token and the one after the RANGE token. If the RANGE
 			 * constructor fails, change the RANGE token to a LITERAL. */
-			next = tokens.get(1); // loop entered only if there exists at least 2 elements in tokens
-			if (next.getType() == TokenType.Range) {
+			if (tokens.getType(1) == TokenType.Range) {
 				try {
-					Range range = new Range(curr, tokens.get(2));
-					tokens.remove(0);
-					tokens.remove(0);
-					tokens.remove(0);
-					matchers.add(range);
-				} catch (ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
-					next.toLiteral();
+					matchers.add(new Range(tokens));
+					tokens.remove();
+					tokens.remove();
+					tokens.remove();
+				} catch (IllegalArgumentException e) {
+					tokens.toLiteral(1);
 				}
 			} else {
-				switch(curr.getType()) {
+				switch(tokens.getType(0)) {
 					case Literal:
-						curr = tokens.remove(0);
-						matchers.add(new Literal(curr));
+						matchers.add(new Literal(tokens.getChar(0)));
+						tokens.remove();
 						break;
 					case ClassOpen:
 						matchers.add(new CharClass(tokens));
 						break;
+					case Property:
+						matchers.add(new Property(tokens));
+						break;
+					case Interval:
+						// counts such as {2} are literal characters in a class
+						for (char c : ("{" + tokens.getName(0) + "}").toCharArray())
+							matchers.add(new Literal(c));
+						tokens.remove();
+						break;
+					case GroupOpen:
+						// and so are the characters of "(?:"
+						if (tokens.getName(0) != null) {
+							for (char c : "(?:".toCharArray())
+								matchers.add(new Literal(c));
+							tokens.remove();
+							break;
+						}
+						tokens.toLiteral(0);
+						break;
 					default:
-						tokens.get(0).toLiteral();
+						tokens.toLiteral(0);
 				}
 			}
-			curr = tokens.get(0);
 		}
 
 		// Check that a ']' was found to close the class
-		if (tokens.size() > 0 && curr.getType() == TokenType.ClassClose)
-			tokens.remove(0);
+		if (tokens.size() > 0 && tokens.getType(0) == TokenType.ClassClose)
+			tokens.remove();
 		else
 			throw new InvalidRegexException("character class not closed");
+
+		set = compile();
 	}
 
-	@Override
-	public int matches(char[] text, int start) {
-		int result = super.matches(text, start);
-		if (negated) {
-			if (result == -1 && start < text.length)
-				return start + 1;
-			else
-				return -1;
-		} else {
-			return result;
+	/* Creates a copy of SOURCE whose members are folded by FOLDING. */
+	private CharClass(CharClass source, CaseFolding folding) {
+		matchers = source.matchers;
+		negated = source.negated;
+		this.folding = folding;
+		set = compile();
+	}
+
+	/* Returns this class with its members folded by FOLDING, so that it matches them in
+	 * any of their cases, or this class if FOLDING is null. The members are folded before
+	 * negation is applied, so that [^a] matches neither a nor A. */
+	private CharClass folded(CaseFolding folding) {
+		if (folding == null)
+			return this;
+		CharClass result = folded;
+		if (result == null || result.folding != folding) {
+			result = new CharClass(this, folding);
+			folded = result;
+		}
+		return result;
+	}
+
+	/* Merges the members of every matcher in MATCHERS into a single CHARSET, and into
+	 * CODEPOINTS if some of them match code points, folding them by FOLDING. */
+	private CharSet compile() {
+		for (Matcher m : matchers) {
+			if (m instanceof Property || (m instanceof CharClass
+					&& ((CharClass)m).codePoints != null))
+				return compileCodePoints();
+		}
+
+		int[] ranges = new int[2 * matchers.size()];
+		int n = 0;
+		for (Matcher m : matchers) {
+			if (m instanceof Literal) {
+				char c = ((Literal)m).getChars()[0];
+				ranges = append(ranges, n++, c);
+				ranges = append(ranges, n++, c);
+			} else if (m instanceof Range) {
+				Range r = (Range)m;
+				ranges = append(ranges, n++, r.getBegin());
+				ranges = append(ranges, n++, r.getEnd());
+			} else if (m instanceof CharClass) {
+				for (int bound : ((CharClass)m).folded(folding).getSet().getRanges())
+					ranges = append(ranges, n++, bound);
+			} else {
+				throw new IllegalStateException("Unexpected matcher in character class.");
+			}
+		}
+		CharSet result = new CharSet(Arrays.copyOf(ranges, n));
+		if (folding != null)
+			result = folding.fold(result);
+		return negated ? result.complement() : result;
+	}
+
+	/* Like COMPILE, for a class that matches code points. A high surrogate followed by a
+	 * low surrogate stands for the code point of the pair. */
+	private CharSet compileCodePoints() {
+		int[] ranges = new int[2 * matchers.size()];
+		int n = 0;
+		long[][] pairs = new long[Character.MIN_LOW_SURROGATE - Character.MIN_HIGH_SURROGATE][];
+		CodePointSet result = null;
+		for (int i = 0; i < matchers.size(); i++) {
+			Matcher m = matchers.get(i);
+			if (m instanceof Literal) {
+				char c = ((Literal)m).getChars()[0];
+				char d = i + 1 < matchers.size() && matchers.get(i + 1) instanceof Literal
+					? ((Literal)matchers.get(i + 1)).getChars()[0] : 0;
+				if (Character.isSurrogatePair(c, d)) {
+					int h = c - Character.MIN_HIGH_SURROGATE;
+					int l = d - Character.MIN_LOW_SURROGATE;
+					if (pairs[h] == null)
+						pairs[h] = new long[pairs.length / 64];
+					pairs[h][l >> 6] |= 1L << l;
+					i++;
+					continue;
+				}
+				ranges = append(ranges, n++, c);
+				ranges = append(ranges, n++, c);
+			} else if (m instanceof Range) {
+				Range r = (Range)m;
+				ranges = append(ranges, n++, r.getBegin());
+				ranges = append(ranges, n++, r.getEnd());
+			} else {
+				CodePointSet members = m instanceof Property ? ((Property)m).getSet(folding)
+					: ((CharClass)m).folded(folding).codePoints;
+				if (members == null) {
+					for (int bound : ((CharClass)m).folded(folding).getSet().getRanges())
+						ranges = append(ranges, n++, bound);
+				} else {
+					result = result == null ? members : result.union(members);
+				}
+			}
 		}
+
+		CodePointSet chars = new CodePointSet(new CharSet(Arrays.copyOf(ranges, n)), pairs);
+		codePoints = result.union(chars);
+		if (folding != null)
+			codePoints = codePoints.fold(folding);
+		if (negated)
+			codePoints = codePoints.complement();
+		return codePoints.getChars();
+	}
+
+	/* Stores VALUE in RANGES at index N, growing RANGES if needed. */
+	private static int[] append(int[] ranges, int n, int value) {
+		if (n == ranges.length)
+			ranges = Arrays.copyOf(ranges, Math.max(2 * ranges.length, 2));
+		ranges[n] = value;
+		return ranges;
+	}
+
+	void compile(Program prog) {
+		CharClass c = folded(prog.getCaseFolding());
+		if (c.codePoints != null)
+			c.codePoints.compile(prog);
+		else
+			prog.emitSet(c.set);
+	}
+
+	boolean isSingleChar() {
+		return codePoints == null || !codePoints.hasPairs();
+	}
+
+	CharSet getSet() {
+		return set;
 	}
 
 	public String toString() {
@@ -0,0 +1,20 @@
+package regex;
+
+/* Matches any single character except a line terminator. */
+class Dot extends Matcher {
+	// every character except the line terminators LF, CR, NEL, LS and PS
+	private static final CharSet SET = new CharSet(new int[] {'\n', '\n', '\r', '\r',
+		0x85, 0x85, 0x2028, 0x2029}).complement();
+
+	void compile(Program prog) {
+		prog.emitSet(SET);
+	}
+
+	boolean isSingleChar() {
+		return true;
+	}
+
+	public String toString() {
+		return ".";
+	}
+}
@@ -0,0 +1,52 @@
+package regex;
+
+import java.util.ArrayList;
+
+/* Matches the pattern enclosed in parentheses, so that it can be repeated or used
+ * as a whole within a longer sequence. Unless it is written "(?:...)", it is a capturing
+ * group: the text it matches is reported under its NUMBER, and a program compiled with
+ * PROGRAM.COMPILECAPTURES records where that text begins and ends. */
+class Group extends Sequence {
+	private int number;	// number of the group, counting from 1, 0 if it captures nothing
+
+	/* Removes the tokens from the GROUPOPEN token at the front of TOKENS up to and
+	 * including the matching GROUPCLOSE token. */
+	Group(Tokens tokens) {
+		this(tokens, tokens.size() > 0 && tokens.getName(0) == null ? tokens.nextGroup() : 0);
+	}
+
+	private Group(Tokens tokens, int number) {
+		super(parseGroup(tokens));
+		this.number = number;
+	}
+
+	private static ArrayList<Matcher> parseGroup(Tokens tokens) {
+		if (tokens.size() == 0 || tokens.getType(0) != TokenType.GroupOpen)
+			throw new IllegalArgumentException("No open group token");
+		tokens.remove();
+
+		ArrayList<Matcher> matchers = Matcher.parseAlternation(tokens);
+
+		// parseAlternation stops at the end of TOKENS or at a ')'
+		if (tokens.size() == 0)
+			throw new InvalidRegexException("group not closed");
+		tokens.remove();
+		return matchers;
+	}
+
+	/* Compiles the enclosed pattern between SAVE instructions that record where it
+	 * begins and ends, if PROG keeps captures and this group captures. */
+	void compile(Program prog) {
+		if (number == 0 || !prog.hasCaptures()) {
+			super.compile(prog);
+			return;
+		}
+		prog.emit(Program.SAVE, 2 * number);
+		super.compile(prog);
+		prog.emit(Program.SAVE, 2 * number + 1);
+	}
+
+	public String toString() {
+		return (number == 0 ? "(?:" : "(") + super.toString() + ")";
+	}
+}
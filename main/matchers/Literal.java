@@ -10,103 +10,123 @@ class Literal extends Matcher{
 	 * represents a literal character, adds that character to CHARS and removes the token.
 	 * Throws ILLEGALARGUMENTEXCEPTION if the first token does not represent a literal 
 	 * character. */
-	Literal (ArrayList<Token> tokens) {
-		if (tokens.size() == 0 || tokens.get(0).getType() != TokenType.Literal)
+	Literal (Tokens tokens) {
+		if (tokens.size() == 0 || tokens.getType(0) != TokenType.Literal)
 			throw new IllegalArgumentException("No character token");
 
 		int count = 0;
-		while (count < tokens.size() && tokens.get(count).getType() == TokenType.Literal) {
+		while (count < tokens.size() && tokens.getType(count) == TokenType.Literal) {
 			count++;
 		}
+		// a quantifier after the literal only applies to its last character
+		if (count > 1 && count < tokens.size() && tokens.isQuantifier(count))
+			count--;
 
 		chars = new char[count];
 		for (int i = 0; i < count; i++) {
-			chars[i] = tokens.get(0).getChar();
-			tokens.remove(0);
+			chars[i] = tokens.getChar(0);
+			tokens.remove();
 		}
 	}
 
-	/* Create a Literal Matcher that matches the single character in TOKEN, whether or
-	 * not TOKEN.type has a value of LITERAL.*/
-	Literal (Token token) {
+	/* Create a Literal Matcher that matches the single character C. */
+	Literal (char c) {
 		chars = new char[1];
-		chars[0] = token.getChar();
+		chars[0] = c;
 	}
 
-	int matches (char[] text, int textIdx) {
-		if (textIdx < 0)
-			throw new IllegalArgumentException("negative textIdx");
-		
-		int patternIdx = 0;
+	/* Compiles CHARS one code point at a time. Unless case matters, those with other
+	 * cases become a set of all of them. A program that matches UTF-8 gets the bytes that
+	 * encode each one, and never matches a surrogate that is not part of a pair, which no
+	 * UTF-8 text holds. */
+	void compile (Program prog) {
+		if (!prog.isUtf8() && prog.getCaseFolding() == null) {
+			for (int i = 0; i < chars.length; i++)
+				prog.emit(Program.CHAR, chars[prog.isReversed() ? chars.length - 1 - i : i]);
+			return;
+		}
 
-		/* Iterate through CHARS and TEXT and check that corresponding characters
-		 * are the same. */
-		while (patternIdx < chars.length && textIdx < text.length) {
-			if (chars[patternIdx] != text[textIdx]) {
-				break;
+		int[] codePoints = new String(chars).codePoints().toArray();
+		for (int i = 0; i < codePoints.length; i++) {
+			int c = codePoints[prog.isReversed() ? codePoints.length - 1 - i : i];
+			CharSet variants = prog.getCaseFolding() == null || c > CharSet.MAX ? null
+				: prog.getCaseFolding().variants((char)c);
+			if (variants != null) {
+				prog.emitSet(variants);
+			} else if (prog.isUtf8() && Character.isSurrogate((char)c)) {
+				prog.emitCodePoints(new int[0]);
 			} else {
-				patternIdx++;
-				textIdx++;
+				char[] units = prog.isUtf8() ? Utf8.encode(Character.toChars(c))
+					: Character.toChars(c);
+				for (int j = 0; j < units.length; j++)
+					prog.emit(Program.CHAR, units[prog.isReversed() ? units.length - 1 - j : j]);
 			}
 		}
+	}
+
+	boolean isSingleChar() {
+		return chars.length == 1;
+	}
 
-		if (patternIdx == chars.length) 
-			return textIdx;
-		else
-			return -1;
+	char[] getChars() {
+		return chars;
 	}
 
 	public String toString () {
 		StringBuilder temp = new StringBuilder();
-		for (char c : chars) {
-			switch(c) {
-				case '\t':
-					temp.append("\\t");
-					break;
-				case '\n':
-					temp.append("\\n");
-					break;
-				case '\r':
-					temp.append("\\r");
-					break;
-				case '\f':
-					temp.append("\\f");
-					break;
-				case '\u0007':
-					temp.append("\\a");
-					break;
-				case '\u001B':
-					temp.append("\\e");
-					break;
-				case '\\':
-				case '^':
-				case '$':
-				case '.':
-				case '|':
-				case '?':
-				case '*':
-				case '+':
-				case '(':
-				case ')':
-				case '[':
-				case ']':
-				case '{':
-				case '}':
-					temp.append('\\');
+		for (char c : chars)
+			appendEscaped(temp, c);
+		return temp.toString();
+	}
+
+	/* Appends C to TEMP, escaped so that it is read back as a literal character. */
+	static void appendEscaped (StringBuilder temp, char c) {
+		switch(c) {
+			case '\t':
+				temp.append("\\t");
+				break;
+			case '\n':
+				temp.append("\\n");
+				break;
+			case '\r':
+				temp.append("\\r");
+				break;
+			case '\f':
+				temp.append("\\f");
+				break;
+			case '\u0007':
+				temp.append("\\a");
+				break;
+			case '\u001B':
+				temp.append("\\e");
+				break;
+			case '\\':
+			case '^':
+			case '$':
+			case '.':
+			case '|':
+			case '?':
+			case '*':
+			case '+':
+			case '(':
+			case ')':
+			case '[':
+			case ']':
+			case '{':
+			case '}':
+				temp.append('\\');
+				temp.append(c);
+				break;
+			default:
+				if (Character.isWhitespace(c) && c != ' ') {
+					String str = Integer.toHexString((int)c);
+					while (str.length() < 4)
+						str = "0" + str;
+					temp.append("\\u" + str);
+				} else {
 					temp.append(c);
-					break;
-				default:
-					if (Character.isWhitespace(c) && c != ' ') {
-						String str = Integer.toHexString((int)c);
-						while (str.length() < 4)
-							str = "0" + str;
-						temp.append("\\u" + str);
-					} else {
-						temp.append(c);
-					}
-			}
+				}
 		}
-		return temp.toString();
 	}
 
 }
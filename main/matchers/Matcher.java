@@ -3,38 +3,98 @@ package regex;
 import java.util.*;
 
 /* Base class for different matcher classes. Each regular expression pattern type has an
- * associated subclass of MATCHER, with its own method for determining whether the pattern
- * matches a specified text. */
+ * associated subclass of MATCHER, which parses it and compiles it into the PROGRAM that
+ * the engines run to match it against a text. */
 public abstract class Matcher {
-	/* START is the index of TEXT at which to begin searching for a match.
-	 * Returns the index up to which a match was found. If no match was found, -1 is
-	 * returned. */
-	abstract int matches (char[] text, int start);
+	/* Appends the instructions that match this pattern to PROG. */
+	abstract void compile (Program prog);
 
-	/* Takes as input the ArrayList of tokens created from the string representation of
-	 * the regex pattern. Returns an ArrayList of Matchers that is a member of the REGEX
+	/* Returns true if this matcher always consumes exactly one character, so that it
+	 * never needs to consider more than one way of matching. */
+	boolean isSingleChar() {
+		return false;
+	}
+
+	/* Takes as input the tokens created from the string representation of the regex
+	 * pattern. Returns an ArrayList of Matchers that is a member of the REGEX
 	 * object. */
-	static ArrayList<Matcher> parse(ArrayList<Token> tokens) {
+	static ArrayList<Matcher> parse(Tokens tokens) {
+		ArrayList<Matcher> matchers = parseAlternation(tokens);
+		if (tokens.size() > 0)	// only a ')' can stop parseAlternation early
+			throw new InvalidRegexException("unmatched ')'");
+		return matchers;
+	}
+
+	/* Parses alternatives separated by '|' tokens until reaching the end of TOKENS or a
+	 * GROUPCLOSE token, which is not removed. Returns the matchers of the single
+	 * alternative, or a list containing one ALTERNATION if there are several. */
+	static ArrayList<Matcher> parseAlternation(Tokens tokens) {
+		ArrayList<Matcher> first = parseSequence(tokens);
+		if (tokens.size() == 0 || tokens.getType(0) != TokenType.Alternation)
+			return first;
+
+		ArrayList<Sequence> alternatives = new ArrayList<Sequence>();
+		alternatives.add(new Sequence(first));
+		while (tokens.size() > 0 && tokens.getType(0) == TokenType.Alternation) {
+			tokens.remove();
+			alternatives.add(new Sequence(parseSequence(tokens)));
+		}
+
+		ArrayList<Matcher> matchers = new ArrayList<Matcher>();
+		matchers.add(new Alternation(alternatives));
+		return matchers;
+	}
+
+	/* Parses matchers until reaching the end of TOKENS, an ALTERNATION token or a
+	 * GROUPCLOSE token, which is not removed. */
+	private static ArrayList<Matcher> parseSequence(Tokens tokens) {
 		ArrayList<Matcher> matchers = new ArrayList<Matcher>();
 
 		while (tokens.size() > 0) {
 			/* Uses the first element of TOKENS to determine which Matcher to construct and
 			 * add to MATCHERS. Throws an ILLEGALSTATEEXCEPTION if the token's type does
 			 * not match any of the cases. */
-			TokenType type = tokens.get(0).getType();
+			TokenType type = tokens.getType(0);
 			switch (type) {
+				case Alternation:
+				case GroupClose:
+					return matchers;
 				case ClassOpen:
 					matchers.add(new CharClass(tokens));
 					break;
 				case Range:
-				case Caret:
 				case ClassClose:
-					// outside of the CharClass constructor, '^', '-', and ']' are literals
-					tokens.get(0).toLiteral();
+					// outside of the CharClass constructor, '-' and ']' are literals
+					tokens.toLiteral(0);
+					break;
+				case Caret:
+				case Anchor:
+					matchers.add(new Anchor(tokens));
 					break;
 				case Literal:
 					matchers.add(new Literal(tokens));
 					break;
+				case Dot:
+					tokens.remove();
+					matchers.add(new Dot());
+					break;
+				case Property:
+					matchers.add(new Property(tokens));
+					break;
+				case GroupOpen:
+					matchers.add(new Group(tokens));
+					break;
+				case Star:
+				case Plus:
+				case Question:
+				case Interval:
+					// the quantifier applies to the last matcher added
+					if (matchers.size() == 0 || matchers.get(matchers.size() - 1) instanceof Repeat)
+						throw new InvalidRegexException("missing expression before '"
+							+ tokens.getChar(0) + "'");
+					Matcher last = matchers.remove(matchers.size() - 1);
+					matchers.add(new Repeat(last, tokens));
+					break;
 				default:
 					throw new IllegalStateException("Unexpected token type.");
 			}
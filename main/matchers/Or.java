@@ -9,17 +9,5 @@ abstract class Or extends Matcher{
 	Or() {
 		matchers = new ArrayList<Matcher>();
 	}
-
-	public int matches(char[] text, int start) {
-		int result = -1;
-		// iterate through MATCHERS until one of them returns a match
-		for (Matcher m : matchers) {
-			result = m.matches(text, start);
-			if (result != -1)
-				break;
-		}
-		return result; 
-	}
-
 }
 
@@ -0,0 +1,59 @@
+package regex;
+
+/* Matches a single code point that has a Unicode property, \p{NAME}, or that does not
+ * have it, \P{NAME}. A code point above 0xFFFF is matched as the surrogate pair that
+ * holds it. */
+class Property extends Matcher {
+	private String name;
+	private boolean negated;
+	private CodePointSet set;	// members, with negation already applied
+	private CaseFolding folding;	// folding of FOLDEDSET
+	private volatile CodePointSet foldedSet;	// SET with the members folded before
+												// negation, built by GETSET
+
+	/* Creates the matcher of the PROPERTY token at the front of TOKENS, and removes it.
+	 * Throws INVALIDREGEXEXCEPTION if there is no property with its name. */
+	Property(Tokens tokens) {
+		if (tokens.size() == 0 || tokens.getType(0) != TokenType.Property)
+			throw new IllegalArgumentException("No property token");
+		name = tokens.getName(0);
+		negated = tokens.getChar(0) == 'P';
+		tokens.remove();
+
+		set = UnicodeProperty.forName(name).getSet();
+		if (negated)
+			set = set.complement();
+	}
+
+	void compile(Program prog) {
+		getSet(prog.getCaseFolding()).compile(prog);
+	}
+
+	boolean isSingleChar() {
+		return !set.hasPairs();
+	}
+
+	CodePointSet getSet() {
+		return set;
+	}
+
+	/* Returns the members folded by FOLDING before negation is applied, so that they
+	 * are matched in any of their cases, or SET if FOLDING is null. */
+	CodePointSet getSet(CaseFolding folding) {
+		if (folding == null)
+			return set;
+		CodePointSet result = foldedSet;
+		if (result == null || this.folding != folding) {
+			result = UnicodeProperty.forName(name).getSet().fold(folding);
+			if (negated)
+				result = result.complement();
+			this.folding = folding;
+			foldedSet = result;
+		}
+		return result;
+	}
+
+	public String toString() {
+		return (negated ? "\\P{" : "\\p{") + name + "}";
+	}
+}
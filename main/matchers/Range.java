@@ -4,25 +4,41 @@ class Range extends Matcher {
 	
 	private char begin, end;
 
-	Range(Token b, Token e) {
-		if (!(b.isRangeBoundary() && e.isRangeBoundary()))
+	/* Creates the range from token 0 to token 2 of TOKENS, which are not removed.
+	 * Throws ILLEGALARGUMENTEXCEPTION if they cannot be the endpoints of a range. */
+	Range(Tokens tokens) {
+		if (tokens.size() < 3 || !(tokens.isRangeBoundary(0) && tokens.isRangeBoundary(2)))
 			throw new IllegalArgumentException();
 
-		begin = b.getChar();
-		end = e.getChar();
+		begin = tokens.getChar(0);
+		end = tokens.getChar(2);
 
 		if (begin > end)
 			throw new IllegalArgumentException();
 	}
 
-	/* Matches any character in between BEGIN and END, inclusive. */
-	int matches (char[] text, int start) {
-		if (start >= text.length)
-			return -1;
-		char c = text[start];
-		if (c >= begin && c <= end)
-			return start + 1;
-		else
-			return -1;
+	void compile(Program prog) {
+		CharSet set = new CharSet(new int[] {begin, end});
+		prog.emitSet(prog.getCaseFolding() == null ? set : prog.getCaseFolding().fold(set));
+	}
+
+	boolean isSingleChar() {
+		return true;
+	}
+
+	char getBegin() {
+		return begin;
+	}
+
+	char getEnd() {
+		return end;
+	}
+
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		Literal.appendEscaped(sb, begin);
+		sb.append('-');
+		Literal.appendEscaped(sb, end);
+		return sb.toString();
 	}
 }
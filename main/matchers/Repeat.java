@@ -0,0 +1,143 @@
+package regex;
+
+/* Matches the pattern of another matcher repeated between MIN and MAX times. A greedy
+ * repetition prefers to match as many times as possible, a lazy one as few. A
+ * possessive one matches as many times as possible and never gives any back, even if
+ * the rest of the pattern then fails to match; only single characters can be repeated
+ * possessively. */
+class Repeat extends Matcher {
+	static final int UNBOUNDED = -1;
+	static final int MAX_COUNT = 1000;	// largest count of an interval, since the pattern
+										// is compiled once per count
+
+	private Matcher matcher;	// the pattern being repeated
+	private int min, max;		// MAX is UNBOUNDED if there is no upper limit
+	private boolean greedy;
+	private boolean possessive;
+
+	/* Creates a repetition of MATCHER from the quantifier at the front of TOKENS,
+	 * removing the quantifier and a '?' that follows it to make it lazy, or a '+' to
+	 * make it possessive. */
+	Repeat(Matcher matcher, Tokens tokens) {
+		if (tokens.size() == 0 || !tokens.isQuantifier(0))
+			throw new IllegalArgumentException("No quantifier token");
+		this.matcher = matcher;
+
+		TokenType type = tokens.getType(0);
+		String counts = tokens.getName(0);
+		tokens.remove();
+		switch (type) {
+			case Star:
+				min = 0;
+				max = UNBOUNDED;
+				break;
+			case Plus:
+				min = 1;
+				max = UNBOUNDED;
+				break;
+			case Interval:
+				parseCounts(counts);
+				break;
+			default:
+				min = 0;
+				max = 1;
+		}
+
+		greedy = true;
+		if (tokens.size() > 0 && tokens.getType(0) == TokenType.Question) {
+			tokens.remove();
+			greedy = false;
+		} else if (tokens.size() > 0 && tokens.getType(0) == TokenType.Plus) {
+			tokens.remove();
+			possessive = min != max;
+			if (possessive && !matcher.isSingleChar())
+				throw new InvalidRegexException("possessive quantifier needs a single character");
+		}
+	}
+
+	/* Sets MIN and MAX from COUNTS, the text of an interval between its braces. */
+	private void parseCounts(String counts) {
+		int comma = counts.indexOf(',');
+		try {
+			min = Integer.parseInt(comma == -1 ? counts : counts.substring(0, comma));
+			if (comma == -1)
+				max = min;
+			else if (comma == counts.length() - 1)
+				max = UNBOUNDED;
+			else
+				max = Integer.parseInt(counts.substring(comma + 1));
+		} catch (NumberFormatException e) {
+			throw new InvalidRegexException("repetition count too large");
+		}
+		if (min > MAX_COUNT || max > MAX_COUNT)
+			throw new InvalidRegexException("repetition count too large");
+		if (max != UNBOUNDED && min > max)
+			throw new InvalidRegexException("invalid repetition range");
+	}
+
+	/* Compiles MIN copies of the pattern followed by the optional ones. With x standing
+	 * for the pattern, an unbounded repetition ends with
+	 *     L: SPLIT body, out; body: x; LOOP L, out; out:
+	 * and a bounded one with MAX - MIN nested optional copies
+	 *     SPLIT body1, out; body1: x; SPLIT body2, out; body2: x; ... out:
+	 * The branch order of each SPLIT is reversed for lazy repetitions. A possessive
+	 * repetition leaves the optional copies only where the next character is not an x,
+	 * so that the threads that stopped early die:
+	 *     ... body2: x; JMP end; out: ASSERT NOT_NEXT x; end:
+	 * In a flat program, a single character repeated greedily or possessively is a RUN
+	 * instead. */
+	void compile(Program prog) {
+		if ((greedy || min == max) && prog.emitRun(matcher, min, max, possessive))
+			return;
+		if (possessive && prog.isReversed())
+			throw new IllegalStateException("possessive repetition in a reversed program");
+
+		for (int i = 0; i < min; i++)
+			matcher.compile(prog);
+
+		if (max == UNBOUNDED) {
+			int loop = prog.emit(Program.SPLIT, 0, 0);
+			int body = prog.next();
+			matcher.compile(prog);
+			prog.emit(Program.LOOP, loop, prog.next() + 3);
+			setBranches(prog, loop, body, prog.next());
+			if (possessive)
+				prog.emitNotNext(matcher);
+		} else if (max > min) {
+			int[] splits = new int[max - min];
+			for (int i = 0; i < splits.length; i++) {
+				splits[i] = prog.emit(Program.SPLIT, 0, 0);
+				prog.patch(splits[i], 0, prog.next());
+				matcher.compile(prog);
+			}
+			int jump = possessive ? prog.emit(Program.JMP, 0) : -1;
+			for (int split : splits)
+				setBranches(prog, split, split + 3, prog.next());
+			if (possessive) {
+				prog.emitNotNext(matcher);
+				prog.patch(jump, 0, prog.next());
+			}
+		}
+	}
+
+	/* Points the SPLIT at PC to BODY and OUT, in the order given by GREEDY. */
+	private void setBranches(Program prog, int pc, int body, int out) {
+		prog.patch(pc, 0, greedy ? body : out);
+		prog.patch(pc, 1, greedy ? out : body);
+	}
+
+	public String toString() {
+		String quantifier;
+		if (min == 0 && max == UNBOUNDED)
+			quantifier = "*";
+		else if (min == 1 && max == UNBOUNDED)
+			quantifier = "+";
+		else if (min == 0 && max == 1)
+			quantifier = "?";
+		else if (min == max)
+			quantifier = "{" + min + "}";
+		else
+			quantifier = "{" + min + "," + (max == UNBOUNDED ? "" : max) + "}";
+		return matcher.toString() + quantifier + (greedy ? "" : "?") + (possessive ? "+" : "");
+	}
+}
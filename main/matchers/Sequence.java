@@ -0,0 +1,25 @@
+package regex;
+
+import java.util.ArrayList;
+
+/* Matches each of its matchers in turn. Used for the alternatives of an ALTERNATION
+ * and for the contents of a GROUP. */
+class Sequence extends Matcher {
+	protected ArrayList<Matcher> matchers;
+
+	Sequence(ArrayList<Matcher> matchers) {
+		this.matchers = matchers;
+	}
+
+	void compile(Program prog) {
+		for (int i = 0; i < matchers.size(); i++)
+			matchers.get(prog.isReversed() ? matchers.size() - 1 - i : i).compile(prog);
+	}
+
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (Matcher m : matchers)
+			sb.append(m.toString());
+		return sb.toString();
+	}
+}
@@ -13,12 +13,18 @@ public class TestMatcher {
 	private static final String U010000 = new String(Character.toChars(0x010000));
 	private static final String U1001A3 = new String(Character.toChars(0x1001a3));
 	private static final String U10FFFF = new String(Character.toChars(0x10ffff));
+	private static final String U01D400 = new String(Character.toChars(0x01d400));
+	private static final String U01F600 = new String(Character.toChars(0x01f600));
 
 	@Rule
 	public ExpectedException thrown = ExpectedException.none();
 
 	private void helper(String pattern, String text, String[] expected) {
-		Regex reg = new Regex(pattern);
+		helper(pattern, 0, text, expected);
+	}
+
+	private void helper(String pattern, int flags, String text, String[] expected) {
+		Regex reg = new Regex(pattern, flags);
 		Search search = new Search(reg, text);
 		ArrayList<String> actual = new ArrayList<String>();
 		while(search.find())
@@ -44,6 +50,31 @@ public class TestMatcher {
 		helper(pattern, text, expected);
 	}
 
+	@Test
+	@Parameters(method = "propertyParams")
+	public void findProperty(String pattern, String text, String[] expected) {
+		helper(pattern, text, expected);
+	}
+
+	@Test
+	@Parameters(method = "caseInsensitiveParams")
+	public void findCaseInsensitive(String pattern, int flags, String text,
+			String[] expected) {
+		helper(pattern, flags, text, expected);
+	}
+
+	@Test
+	@Parameters(method = "operatorParams")
+	public void findOperators(String pattern, String text, String[] expected) {
+		helper(pattern, text, expected);
+	}
+
+	@Test
+	@Parameters(method = "anchorParams")
+	public void findAnchors(String pattern, String text, String[] expected) {
+		helper(pattern, text, expected);
+	}
+
 	@Test
 	@Parameters(method = "invalidParams")
 	public void invalidPatterns(String pattern, String message) {
@@ -86,7 +117,267 @@ public class TestMatcher {
 			new Object[] {"[abc\\Q]\\E\\[[x])}", "character class not closed"},
 			new Object[] {"[]", "character class not closed"},
 			new Object[] {"asdf[", "character class not closed"},
-			new Object[] {"[^]", "character class not closed"}
+			new Object[] {"[^]", "character class not closed"},
+			new Object[] {"[^", "character class not closed"},
+			new Object[] {"[a-", "character class not closed"},
+			new Object[] {"[ab-", "character class not closed"},
+			// Unicode properties
+			new Object[] {"\\p", "missing property name"},
+			new Object[] {"\\p{}", "missing property name"},
+			new Object[] {"\\p{L", "missing '}' after property name"},
+			new Object[] {"\\pX", "unknown property 'X'"},
+			new Object[] {"\\p{lu}", "unknown property 'lu'"},
+			new Object[] {"[\\P{IsKlingon}]", "unknown property 'IsKlingon'"},
+			new Object[] {"\\p{sc=Nd}", "unknown property 'sc=Nd'"},
+			// quantifiers and groups
+			new Object[] {"*a", "missing expression before '*'"},
+			new Object[] {"a|+", "missing expression before '+'"},
+			new Object[] {"a**", "missing expression before '*'"},
+			new Object[] {"{2}", "missing expression before '{'"},
+			new Object[] {"a{2,1}", "invalid repetition range"},
+			new Object[] {"a{1001}", "repetition count too large"},
+			new Object[] {"(ab)++", "possessive quantifier needs a single character"},
+			new Object[] {"(?:a|b)*+", "possessive quantifier needs a single character"},
+			new Object[] {"x(a){1,2}+", "possessive quantifier needs a single character"},
+			new Object[] {"\\b?+", "possessive quantifier needs a single character"},
+			new Object[] {"(?a)", "missing expression before '?'"},
+			new Object[] {"(ab", "group not closed"},
+			new Object[] {"((a)|b", "group not closed"},
+			new Object[] {"(?:a", "group not closed"},
+			new Object[] {"ab)", "unmatched ')'"},
+			new Object[] {"a|b)c", "unmatched ')'"}
+		};
+	}
+
+	// Regex patterns that use Unicode properties
+	public Object[] caseInsensitiveParams() {
+		int ascii = Regex.CASE_INSENSITIVE;
+		int unicode = Regex.CASE_INSENSITIVE | Regex.UNICODE_CASE;
+		return new Object[] {
+			new Object[] {"hello", ascii, "Hello HELLO hElLo help",
+				new String[] {"Hello", "HELLO", "hElLo"}},
+			new Object[] {"[a-c]+", ascii, "xAbCx cab",
+				new String[] {"AbC", "cab"}},
+			new Object[] {"[^a]+", ascii, "bAaBc",
+				new String[] {"b", "Bc"}},
+			new Object[] {"[^[^k]]", ascii, "kK\u212a",
+				new String[] {"k", "K"}},
+			new Object[] {"(ab|cd)*e", ascii, "ABcDE abCde",
+				new String[] {"ABcDE", "abCde"}},
+			// only ASCII letters are folded without UNICODE_CASE
+			new Object[] {"\u00e9t\u00e9", ascii, "\u00c9T\u00c9 \u00e9T\u00e9",
+				new String[] {"\u00e9T\u00e9"}},
+			new Object[] {"\u00e9t\u00e9", unicode, "\u00c9T\u00c9 \u00e9T\u00e9",
+				new String[] {"\u00c9T\u00c9", "\u00e9T\u00e9"}},
+			new Object[] {"k", unicode, "kK\u212a",
+				new String[] {"k", "K", "\u212a"}},
+			new Object[] {"\u03c3+", unicode, "\u03a3\u03c3\u03c2",
+				new String[] {"\u03a3\u03c3\u03c2"}},
+			new Object[] {"[\u0430-\u044f]+", unicode, "\u041f\u0440\u0438\u0432\u0435\u0442",
+				new String[] {"\u041f\u0440\u0438\u0432\u0435\u0442"}},
+			new Object[] {"[^\u00e9]", unicode, "\u00e9\u00c9e",
+				new String[] {"e"}},
+			new Object[] {"\\p{Lu}+", unicode, "aB1c",
+				new String[] {"aB", "c"}},
+			new Object[] {"\\P{Ll}", unicode, "aB1c",
+				new String[] {"1"}},
+		};
+	}
+
+	public Object[] propertyParams() {
+		return new Object[] {
+			// general categories
+			new Object[] {"\\p{Lu}", "aB\u00c9c\u03a3",
+				new String[] {"B", "\u00c9", "\u03a3"}},
+			new Object[] {"\\pL+", "ab1\u00e9\u4e2d 2",
+				new String[] {"ab", "\u00e9\u4e2d"}},
+			new Object[] {"\\p{IsNd}+", "a12\u0663\u0664b\uff15",
+				new String[] {"12\u0663\u0664", "\uff15"}},
+			new Object[] {"\\p{gc=Zs}", "a b\u00a0c\u3000\t",
+				new String[] {" ", "\u00a0", "\u3000"}},
+			new Object[] {"\\P{L}", "a1b-",
+				new String[] {"1", "-"}},
+			// scripts, blocks and binary properties
+			new Object[] {"\\p{IsGreek}+", "abc\u03b1\u03b2\u1f00 \u03c9",
+				new String[] {"\u03b1\u03b2\u1f00", "\u03c9"}},
+			new Object[] {"\\p{InGreek}+", "\u03b1\u03b2\u1f00",
+				new String[] {"\u03b1\u03b2"}},
+			new Object[] {"\\p{sc=Han}", "a\u4e2d\u6587",
+				new String[] {"\u4e2d", "\u6587"}},
+			new Object[] {"\\p{IsWhite_Space}+", "a \t\n\u2028b",
+				new String[] {" \t\n\u2028"}},
+			new Object[] {"\\p{IsAlphabetic}+", "ab1\u2160c",
+				new String[] {"ab", "\u2160c"}},
+			// supplementary code points are matched whole
+			new Object[] {"\\p{Lu}", "a" + U01D400 + "B",
+				new String[] {U01D400, "B"}},
+			new Object[] {"\\p{So}", U01F600 + "x\u00a9",
+				new String[] {U01F600, "\u00a9"}},
+			new Object[] {"\\P{Lu}", U01D400 + U01F600,
+				new String[] {U01F600}},
+			new Object[] {"\\p{IsEmoji}+", "a" + U01F600 + U01F600 + "b",
+				new String[] {U01F600 + U01F600}},
+			new Object[] {"x\\p{L}*y", "x" + U01D400 + "ay xy",
+				new String[] {"x" + U01D400 + "ay", "xy"}},
+			// in character classes
+			new Object[] {"[\\p{L}0-9_]+", "ab_1 \u00e9-c",
+				new String[] {"ab_1", "\u00e9", "c"}},
+			new Object[] {"[^\\p{L}]", "a1\u00e9 ",
+				new String[] {"1", " "}},
+			new Object[] {"[^\\p{L}\\p{Zs}]+", "ab12 cd-",
+				new String[] {"12", "-"}},
+			new Object[] {"[\\P{L}a]+", "ab1a",
+				new String[] {"a", "1a"}},
+			new Object[] {"[[\\p{Nd}]x]+", "ax1x2\u0663",
+				new String[] {"x1x2\u0663"}},
+			new Object[] {"[\\p{Lu}\\x{1F600}]", "a" + U01D400 + U01F600 + U010000,
+				new String[] {U01D400, U01F600}},
+			new Object[] {"[^\\p{Lu}]", U01D400 + U01F600,
+				new String[] {U01F600}}
+		};
+	}
+
+	// Regex patterns that use quantifiers, alternation, groups and '.'
+	public Object[] operatorParams() {
+		return new Object[] {
+			// quantifiers
+			new Object[] {"ab*", "a ab abbb b",
+				new String[] {"a", "ab", "abbb"}},
+			new Object[] {"ab+", "a ab abbb b",
+				new String[] {"ab", "abbb"}},
+			new Object[] {"colou?r", "color colour colouur",
+				new String[] {"color", "colour"}},
+			new Object[] {"[0-9]+", "12 345a6",
+				new String[] {"12", "345", "6"}},
+			new Object[] {"a*", "baa",
+				new String[] {"", "aa", ""}},
+			new Object[] {"a+?", "aaa",
+				new String[] {"a", "a", "a"}},
+			new Object[] {"a*?b", "aab b",
+				new String[] {"aab", "b"}},
+			new Object[] {"<.+>", "<a><b>",
+				new String[] {"<a><b>"}},
+			new Object[] {"<.+?>", "<a><b>",
+				new String[] {"<a>", "<b>"}},
+			new Object[] {"a??b", "ab b",
+				new String[] {"ab", "b"}},
+			new Object[] {"\\*\\+\\?", "*+? *+",
+				new String[] {"*+?"}},
+			new Object[] {"[*+?|()]+", "a*+?|()b",
+				new String[] {"*+?|()"}},
+			// alternation
+			new Object[] {"cat|dog", "cats and dogs",
+				new String[] {"cat", "dog"}},
+			new Object[] {"a|ab", "ab",
+				new String[] {"a"}},
+			new Object[] {"ab|a", "ab",
+				new String[] {"ab"}},
+			new Object[] {"|a", "a",
+				new String[] {"", ""}},
+			// groups
+			new Object[] {"(ab)+", "abab aba",
+				new String[] {"abab", "ab"}},
+			new Object[] {"gr(a|e)y", "gray grey gruy",
+				new String[] {"gray", "grey"}},
+			new Object[] {"(a|b)*c", "abbac c xc",
+				new String[] {"abbac", "c", "c"}},
+			new Object[] {"x(a|bc)?y", "xy xay xbcy xby",
+				new String[] {"xy", "xay", "xbcy"}},
+			new Object[] {"((a|b)c)+", "acbcx",
+				new String[] {"acbc"}},
+			new Object[] {"(?:ab|c)+d", "abcd cd",
+				new String[] {"abcd", "cd"}},
+			new Object[] {"[(?:]+", "a(?:b",
+				new String[] {"(?:"}},
+			// counted repetition
+			new Object[] {"a{2}", "a aa aaaaa",
+				new String[] {"aa", "aa", "aa"}},
+			new Object[] {"x{2,}y", "xy xxy xxxxy",
+				new String[] {"xxy", "xxxxy"}},
+			new Object[] {"[0-9]{2,3}", "1 12 1234 12345",
+				new String[] {"12", "123", "123", "45"}},
+			new Object[] {"(ab){1,2}c", "abc ababc abababc",
+				new String[] {"abc", "ababc", "ababc"}},
+			new Object[] {"a{2,3}?", "aaaa",
+				new String[] {"aa", "aa"}},
+			new Object[] {"a{,2}b{x}c{1", "a{,2}b{x}c{1",
+				new String[] {"a{,2}b{x}c{1"}},
+			new Object[] {"a{0}b", "ab b",
+				new String[] {"b", "b"}},
+			new Object[] {"[a{2}]+", "x{2}a,",
+				new String[] {"{2}a"}},
+			// possessive repetition
+			new Object[] {"a*+b", "aab b",
+				new String[] {"aab", "b"}},
+			new Object[] {"[a-z]++z", "abz",
+				new String[] {}},
+			new Object[] {"a?+a", "a aa",
+				new String[] {"aa"}},
+			new Object[] {"\\d{1,3}+5", "12345 45",
+				new String[] {"2345"}},
+			new Object[] {"\"[^\"]*+\"", "say \"hi\" and \"bye",
+				new String[] {"\"hi\""}},
+			// predefined classes
+			new Object[] {"\\d+", "a12b3",
+				new String[] {"12", "3"}},
+			new Object[] {"\\w+", "ab_1 c-d",
+				new String[] {"ab_1", "c", "d"}},
+			new Object[] {"\\s+", "a \t\nb",
+				new String[] {" \t\n"}},
+			new Object[] {"\\D\\W\\S", "a b1.x",
+				new String[] {"a b"}},
+			new Object[] {"[\\d.]+", "x1.5y",
+				new String[] {"1.5"}},
+			new Object[] {"()", "ab",
+				new String[] {"", "", ""}},
+			// '.'
+			new Object[] {"a.c", "abc a\nc a.c",
+				new String[] {"abc", "a.c"}},
+			new Object[] {".+", "ab\ncd\r\u2028e",
+				new String[] {"ab", "cd", "e"}},
+			// patterns that would take exponential time with a backtracking engine
+			new Object[] {"(a*)*b", "aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa",
+				new String[] {}},
+			new Object[] {"(a|aa)+c", "aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa",
+				new String[] {}}
+		};
+	}
+
+	// Regex patterns that use anchors
+	public Object[] anchorParams() {
+		return new Object[] {
+			new Object[] {"^a", "aaa",
+				new String[] {"a"}},
+			new Object[] {"^a", "baa",
+				new String[] {}},
+			new Object[] {"a$", "aaa",
+				new String[] {"a"}},
+			new Object[] {"a$", "aaa\n",
+				new String[] {"a"}},
+			new Object[] {"a$", "aaa\n\n",
+				new String[] {}},
+			new Object[] {"$", "a\r\n",
+				new String[] {"", ""}},
+			new Object[] {"a\\z", "aaa\n",
+				new String[] {}},
+			new Object[] {"a\\Z", "aa\u2028",
+				new String[] {"a"}},
+			new Object[] {"\\Aa*", "aab",
+				new String[] {"aa"}},
+			new Object[] {"^$", "",
+				new String[] {""}},
+			new Object[] {"\\bab\\b", "ab cab ab_ ab.",
+				new String[] {"ab", "ab"}},
+			new Object[] {"\\Bb+", "b abb bb",
+				new String[] {"bb", "b"}},
+			new Object[] {"\\b", "ab c",
+				new String[] {"", "", "", ""}},
+			new Object[] {"\\B", "ab c",
+				new String[] {""}},
+			new Object[] {"(^|x)a", "axaba",
+				new String[] {"a", "xa"}},
+			new Object[] {"a(\\b|c)+", "acab",
+				new String[] {"ac"}}
 		};
 	}
 
@@ -163,6 +454,8 @@ public class TestMatcher {
 				new String[] {"a", "-", "a", "c"}},
 			new Object[] {"[a-f][^a-f]", "afgb",
 				new String[] {"fg"}},
+			new Object[] {"[\\u0100-\\u017fa-c\\uffff]", "a\u0101\u0180d\u017f\uffff",
+				new String[] {"a", "\u0101", "\u017f", "\uffff"}},
 			// char class with negation
 			new Object[] {"[^abc]", "[^abc] dcabB^",
 				new String[] {"[", "^", "]", " ", "d", "B", "^"}},
@@ -198,10 +491,14 @@ public class TestMatcher {
 				new String[] {"q "}},
 			new Object[] {"[^\\0101]\\0101", "A\\AB",
 				new String[] {"\\A"}},
-			new Object[] {"[ax]^[b-c]", "[x^cagxz]",
+			new Object[] {"[ax]\\^[b-c]", "[x^cagxz]",
 				new String[] {"x^c"}},
 			new Object[] {"b[^c]", "bcbab",
-				new String[] {"ba"}}
+				new String[] {"ba"}},
+			new Object[] {"[^\\u0100-\\u017f]", "\u0101\u0180a\u0100",
+				new String[] {"\u0180", "a"}},
+			new Object[] {"[^[^\\u0100-\\u017f]x]", "x\u0101\u0180\u017f",
+				new String[] {"\u0101", "\u017f"}}
 		};
 	}
 
@@ -233,7 +530,12 @@ public class TestMatcher {
 			new Object[] {"abc", "cbaba",
 						  new String[] {}},
 			new Object[] {"asd\000asd", "lkklasd\000asdasdasd\000asdkll",
-				          new String[] {"asd\000asd", "asd\000asd"}}};
+				          new String[] {"asd\000asd", "asd\000asd"}},
+			// characters that share a low byte with characters of the pattern
+			new Object[] {"a\u0161b", "\u0161a\u0161\u0161ba\u0161ba\u0161b",
+				          new String[] {"a\u0161b", "a\u0161b"}},
+			new Object[] {"abab", "abaabababab",
+				          new String[] {"abab", "abab"}}};
 	}
 
 
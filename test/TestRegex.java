@@ -1,5 +1,21 @@
 package regex;
 
+import java.nio.ByteBuffer;
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.Test;
 import static org.junit.Assert.*;
 import org.junit.Ignore;
@@ -33,6 +49,35 @@ public class TestRegex {
 		assertEquals(pattern, r.toString());
 	}
 
+	@Test
+	public void testConstructorOperators() {
+		String pattern = "(a|bc)*d+?e?.[x-z]??";
+		Regex r = new Regex(pattern);
+		assertEquals(pattern, r.toString());
+	}
+
+	@Test
+	public void testConstructorRepetition() {
+		String pattern = "a{2,3}b{2}(cd){2,}?e*+f{0,4}+";
+		Regex r = new Regex(pattern);
+		assertEquals(pattern, r.toString());
+	}
+
+	@Test
+	public void testConstructorAnchors() {
+		String pattern = "^a\\b(b|$)\\A\\z\\Z\\B";
+		Regex r = new Regex(pattern);
+		assertEquals(pattern, r.toString());
+	}
+
+	@Test
+	public void testConstructorGroups() {
+		String pattern = "(a(?:b|c))*(?:d)(e)";
+		Regex r = new Regex(pattern);
+		assertEquals(pattern, r.toString());
+		assertEquals(2, r.groupCount());
+	}
+
 	@Test
 	public void testEmptyTextAndNull() {
 		String pattern = "\000";
@@ -72,4 +117,860 @@ public class TestRegex {
 		assertNull(s.getResult());
 	}
 
+	private ArrayList<String> findAll(Search s) {
+		ArrayList<String> results = new ArrayList<String>();
+		while (s.find())
+			results.add(s.getResult());
+		return results;
+	}
+
+	@Test
+	public void testCharSequences() {
+		Regex r = new Regex("a[bc]+");
+		String[] expected = {"abc", "ac", "ab"};
+
+		StringBuilder builder = new StringBuilder("xabc ac ab");
+		assertArrayEquals(expected, findAll(new Search(r, builder)).toArray());
+
+		// heap buffer whose position and array offset are not 0
+		CharBuffer heap = CharBuffer.wrap("--xabc ac ab".toCharArray()).slice();
+		heap.position(2);
+		heap = heap.slice();
+		assertArrayEquals(expected, findAll(new Search(r, heap)).toArray());
+
+		CharBuffer direct = ByteBuffer.allocateDirect(40).asCharBuffer();
+		direct.put("xabc ac ab").flip();
+		assertArrayEquals(expected, findAll(new Search(r, direct)).toArray());
+	}
+
+	@Test
+	public void testRegion() {
+		Regex r = new Regex("ab+");
+		String text = "abbb ab abb";
+		assertArrayEquals(new String[] {"bb"}, findAll(new Search(new Regex("b+"), text, 2, 4))
+			.toArray());
+		assertArrayEquals(new String[] {"ab", "ab"}, findAll(new Search(r, text, 5, 10))
+			.toArray());
+		assertArrayEquals(new String[] {}, findAll(new Search(r, text, 1, 4)).toArray());
+		assertArrayEquals(new String[] {}, findAll(new Search(r, text, 5, 5)).toArray());
+	}
+
+	@Test
+	public void testReset() {
+		Search s = new Search(new Regex("(a|b)c+"), "acc bc");
+		assertTrue(s.find());
+		s.reset("xbcc ac");
+		assertArrayEquals(new String[] {"bcc", "ac"}, findAll(s).toArray());
+		char[] chars = "acbcac".toCharArray();
+		s.reset(chars, 1, 5);
+		assertTrue(s.find());
+		assertEquals(2, s.start());
+		assertEquals("b", s.getResult(1));
+		assertFalse(s.find());
+		s.reset(CharBuffer.wrap("--bcc".toCharArray(), 2, 3));
+		assertArrayEquals(new String[] {"bcc"}, findAll(s).toArray());
+		s.reset(new StringBuilder("ac"));
+		assertTrue(s.matches());
+		assertEquals("a", s.getResult(1));
+
+		// a region out of bounds leaves the text searched as it was
+		s.reset(chars, 4, 6);
+		try {
+			s.reset(chars, 4, 7);
+			fail();
+		} catch (IndexOutOfBoundsException e) {
+		}
+		assertArrayEquals(new String[] {"ac"}, findAll(s).toArray());
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testRegionOutOfBounds() {
+		new Search(new Regex("a"), "abc", 2, 4);
+	}
+
+	private ArrayList<String> findAll(Regex r, String text) {
+		ArrayList<String> results = new ArrayList<String>();
+		Search s = new Search(r, text);
+		while (s.find())
+			results.add(s.getResult());
+		return results;
+	}
+
+	/* Returns the start and end indices of every match of R in TEXT, as consecutive
+	 * pairs. */
+	private int[] offsets(Regex r, String text) {
+		int[] offsets = new int[2 * (text.length() + 1)];
+		return Arrays.copyOf(offsets, 2 * new Search(r, text).findAll(offsets));
+	}
+
+	@Test
+	public void testFlatMatchesEngines() {
+		// patterns that FIND runs one instruction after the other, each checked against
+		// an alternation of two copies of it, which only the DFA and NFA engines run
+		String[] patterns = {"abc", "a.c", "[a-c]x", "ab+c", "a*b", "[ab]*c", "a{2,3}b",
+			"x[^ab]+", "\\d+", "a?b", "a++b", "ba*", "[a-c]{2}", "c[ab]?", "[^ ]+", "a*+",
+			"\\w+1\\w*", "\u00e9+x?"};
+		String chars = "abcx1 \u00e9\u00c9";
+		Random random = new Random(1);
+		for (String p : patterns) {
+			for (int flags : new int[] {0, Regex.CASE_INSENSITIVE | Regex.UNICODE_CASE}) {
+				Regex flat = new Regex(p, flags);
+				// and against the generated code, for the patterns that have it
+				Regex compiled = new Regex(p, flags);
+				boolean generated = compiled.compileBytecode();
+				Regex dfa = new Regex("(?:" + p + ")|(?:" + p + ")", flags);
+				Regex nfa = new Regex("(?:" + p + ")|(?:" + p + ")", flags);
+				nfa.setDFACacheSize(0);
+				for (int i = 0; i < 200; i++) {
+					StringBuilder text = new StringBuilder();
+					for (int n = random.nextInt(12); n > 0; n--)
+						text.append(chars.charAt(random.nextInt(chars.length())));
+					int[] expected = offsets(dfa, text.toString());
+					assertArrayEquals(p + " " + text, expected, offsets(flat, text.toString()));
+					if (generated)
+						assertArrayEquals(p + " " + text, expected,
+							offsets(compiled, text.toString()));
+					assertArrayEquals(p + " " + text, expected, offsets(nfa, text.toString()));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testDFACacheSize() {
+		Regex r = new Regex("(a|b|ab)*c(ba|b)+|ca");
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 200; i++)
+			text.append("abcab cba aabcabbb cca bca ");
+		ArrayList<String> expected = findAll(r, text.toString());
+		assertEquals(1000, expected.size());
+
+		// small enough that the cache is cleared during the search
+		r.setDFACacheSize(400);
+		assertEquals(expected, findAll(r, text.toString()));
+		// no DFA at all
+		r.setDFACacheSize(0);
+		assertEquals(expected, findAll(r, text.toString()));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testDFACacheSizeNegative() {
+		new Regex("a*").setDFACacheSize(-1);
+	}
+
+	@Test
+	public void testFileSearch() throws Exception {
+		String[] patterns = {"ab", "a[bc]d", "b+", "x*", "(ab|a)*c", "a.*c", "c|ab(ab)*d"};
+		String text = "abcd aacd abababd xx\u00e9\u00e9ab bbbc abd ";
+		for (Charset charset : new Charset[] {StandardCharsets.ISO_8859_1,
+				StandardCharsets.UTF_8}) {
+			Path path = Files.createTempFile("regex", ".txt");
+			try {
+				byte[] bytes = text.getBytes(charset);
+				Files.write(path, bytes);
+				for (String p : patterns) {
+					// windows small enough for matches to cross their ends
+					for (int window : new int[] {2, 3, 7, 1 << 20}) {
+						ArrayList<String> expected = findAll(new Regex(p), text);
+						ArrayList<String> results = new ArrayList<String>();
+						try (FileSearch s = new FileSearch(new Regex(p), path, charset, window)) {
+							while (s.find()) {
+								results.add(s.getResult());
+								// offsets are in bytes
+								assertEquals(s.getResult(), new String(bytes, (int)s.start(),
+									(int)(s.end() - s.start()), charset));
+							}
+						}
+						assertEquals(p + " " + window, expected, results);
+					}
+				}
+			} finally {
+				Files.delete(path);
+			}
+		}
+	}
+
+	@Test
+	public void testFileSearchAscii() throws Exception {
+		Path path = Files.createTempFile("regex", ".txt");
+		try {
+			Files.write(path, new byte[] {'a', (byte)0xE9, 'b'});
+			try (FileSearch s = new FileSearch(new Regex("a.b"), path, StandardCharsets.US_ASCII)) {
+				assertTrue(s.find());
+				assertEquals("a\ufffdb", s.getResult());
+				assertEquals(0, s.start());
+				assertEquals(3, s.end());
+				assertFalse(s.find());
+			}
+		} finally {
+			Files.delete(path);
+		}
+	}
+
+	@Test
+	public void testUtf8Search() {
+		String[] patterns = {"ab", "a[bc]d", "b+", "(ab|a)*c", "\u00e9+", "[\u00e0-\u00ff]+",
+			"\u4e2d|\u00e9a", "\\p{L}+", "\\p{So}", "[^ ]+", "\ud835\udc00b"};
+		String text = "abcd aacd \u00e9\u00e9ab \u4e2d\u6587 \ud835\udc00b\ud83d\ude00 abd ";
+		byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+		ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length + 2);
+		direct.put(new byte[] {'a', 'b'}).put(bytes).position(2);
+		for (String p : patterns) {
+			ArrayList<String> expected = findAll(new Regex(p), text);
+			for (Utf8Search s : new Utf8Search[] {new Utf8Search(new Regex(p), bytes),
+					new Utf8Search(new Regex(p), direct)}) {
+				ArrayList<String> results = new ArrayList<String>();
+				while (s.find()) {
+					results.add(s.getResult());
+					// offsets are in bytes
+					assertEquals(s.getResult(), new String(bytes, s.start(),
+						s.end() - s.start(), StandardCharsets.UTF_8));
+				}
+				assertEquals(p, expected, results);
+			}
+		}
+
+		// single characters are code points, and empty matches never split them
+		int[] offsets = new int[4];
+		assertEquals(2, new Utf8Search(new Regex("."), bytes, 25, 33).findAll(offsets));
+		assertArrayEquals(new int[] {28, 29, 29, 33}, offsets);
+		offsets = new int[6];
+		assertEquals(3, new Utf8Search(new Regex("x*"), "\u00e9\u4e2d".getBytes(
+			StandardCharsets.UTF_8)).findAll(offsets));
+		assertArrayEquals(new int[] {0, 0, 2, 2, 5, 5}, offsets);
+		// neither a lone surrogate nor an invalid byte is matched
+		assertFalse(new Utf8Search(new Regex("\ud800"), "\ud800".getBytes(
+			StandardCharsets.UTF_8)).find());
+		assertFalse(new Utf8Search(new Regex("a.b"), new byte[] {'a', (byte)0xE9, 'b'}).find());
+	}
+
+	@Test
+	public void testUtf8SearchCodePoints() {
+		Regex letter = new Regex("\\p{L}");
+		Regex any = new Regex("[^a]");
+		for (int c = 0; c <= Character.MAX_CODE_POINT; c++) {
+			if (c == Character.MIN_SURROGATE)
+				c = Character.MAX_SURROGATE + 1;
+			byte[] bytes = new String(Character.toChars(c)).getBytes(StandardCharsets.UTF_8);
+			Utf8Search s = new Utf8Search(letter, bytes);
+			assertEquals(Character.isLetter(c), s.find() && s.end() == bytes.length);
+			s = new Utf8Search(any, bytes);
+			assertEquals(c != 'a', s.find() && s.end() == bytes.length);
+		}
+	}
+
+	@Test
+	public void testCaseInsensitive() {
+		String[] patterns = {"k", "s", "\u03c3", "\u00e9", "\u0130", "\u01c5", "[^k]"};
+		for (int flags : new int[] {Regex.CASE_INSENSITIVE,
+				Regex.CASE_INSENSITIVE | Regex.UNICODE_CASE}) {
+			for (String p : patterns) {
+				Regex r = new Regex(p, flags);
+				java.util.regex.Pattern expected = java.util.regex.Pattern.compile(p, flags);
+				for (char c = 0; c < Character.MIN_SURROGATE; c++) {
+					String text = String.valueOf(c);
+					Search s = new Search(r, text);
+					assertEquals(p + " " + (int)c, expected.matcher(text).matches(), s.find());
+					Utf8Search u = new Utf8Search(r, text.getBytes(StandardCharsets.UTF_8));
+					assertEquals(p + " " + (int)c, expected.matcher(text).matches(), u.find());
+				}
+			}
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownFlags() {
+		new Regex("a", 0x100);
+	}
+
+	@Test
+	public void testStreamSearch() throws Exception {
+		String[] patterns = {"ab", "a[bc]d", "b+", "x*", "(ab|a)*c", "a.*c", "c|ab(ab)*d"};
+		String text = "abcd aacd abababd xx\u00e9\u00e9ab bbbc abd ";
+		for (String p : patterns) {
+			ArrayList<String> expected = findAll(new Regex(p), text);
+			// chunks small enough for matches to span them
+			for (int chunk : new int[] {1, 2, 5, 8192}) {
+				ArrayList<String> results = new ArrayList<String>();
+				try (StreamSearch s = new StreamSearch(new Regex(p), new StringReader(text),
+						chunk)) {
+					while (s.find()) {
+						results.add(s.getResult());
+						assertEquals(s.getResult(), text.substring((int)s.start(), (int)s.end()));
+					}
+				}
+				assertEquals(p + " " + chunk, expected, results);
+			}
+
+			ArrayList<String> results = new ArrayList<String>();
+			try (StreamSearch s = new StreamSearch(new Regex(p), Channels.newChannel(
+					new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8))),
+					StandardCharsets.UTF_8)) {
+				while (s.find())
+					results.add(s.getResult());
+			}
+			assertEquals(expected, results);
+		}
+	}
+
+	@Test
+	public void testStreamSearchLong() throws Exception {
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 20000; i++)
+			text.append("xyzzy abcab ");
+		StreamSearch s = new StreamSearch(new Regex("ab(ca|x)b"), new StringReader(
+			text.toString()), 16);
+		int count = 0;
+		while (s.find()) {
+			assertEquals("abcab", s.getResult());
+			assertEquals(12 * count + 6, s.start());
+			count++;
+		}
+		assertEquals(20000, count);
+	}
+
+	@Test
+	public void testRepetition() throws Exception {
+		String[] patterns = {"a{2,3}", "[ab]{2,}c", "(ab|a){1,3}b", "\\w++=", "b*+b",
+			"[^ ]++ ", "\\d{2}+\\D", "x?+\\s*\\S", "a{0,2}+a", "\u00e9++a"};
+		String text = "aaab abab= ab = bbbc 12x 123 x a\u00e9\u00e9a xx\t\u00e9b";
+		for (String p : patterns) {
+			ArrayList<String> expected = new ArrayList<String>();
+			java.util.regex.Matcher m = java.util.regex.Pattern.compile(p).matcher(text);
+			while (m.find())
+				expected.add(m.group());
+			assertEquals(p, expected, findAll(new Regex(p), text));
+
+			// assertions at the end of a chunk wait for the next one
+			for (int chunk : new int[] {1, 3}) {
+				ArrayList<String> results = new ArrayList<String>();
+				try (StreamSearch s = new StreamSearch(new Regex(p), new StringReader(text),
+						chunk)) {
+					while (s.find())
+						results.add(s.getResult());
+				}
+				assertEquals(p + " " + chunk, expected, results);
+			}
+
+			ArrayList<String> results = new ArrayList<String>();
+			Utf8Search u = new Utf8Search(new Regex(p), text.getBytes(StandardCharsets.UTF_8));
+			while (u.find())
+				results.add(u.getResult());
+			assertEquals(p, expected, results);
+		}
+	}
+
+	@Test
+	public void testEmptyIteration() {
+		// a lazy body that first matches nothing ends the loop before trying more,
+		// whichever engine runs it
+		for (int size : new int[] {Regex.DEFAULT_DFA_CACHE_SIZE, 0}) {
+			Regex r = new Regex("(.??)*1");
+			r.setDFACacheSize(size);
+			assertArrayEquals(new int[] {0, 2, 2, 4}, offsets(r, "x1x1"));
+			r = new Regex("(?:[^a]??)*\\d");
+			r.setDFACacheSize(size);
+			assertArrayEquals(new int[] {0, 3, 3, 6}, offsets(r, "xx1xx2"));
+		}
+	}
+
+	@Test
+	public void testAnchors() throws Exception {
+		String[] patterns = {"^a+", "b$", "\\bab", "\\Bb+\\B", "x\\Z", "\\w+\\z", "$",
+			"(^|\\s)\\w", "\\b.", "\\A\\s*\\S"};
+		String text = "aab abb\r\nbab  x\u00e9b\n ab_ab bx\r\n";
+		for (String p : patterns) {
+			ArrayList<String> expected = new ArrayList<String>();
+			java.util.regex.Matcher m = java.util.regex.Pattern.compile(p).matcher(text);
+			while (m.find())
+				expected.add(m.group());
+			assertEquals(p, expected, findAll(new Regex(p), text));
+
+			// a chunk may end where an anchor is decided by the next one
+			for (int chunk : new int[] {1, 2}) {
+				ArrayList<String> results = new ArrayList<String>();
+				try (StreamSearch s = new StreamSearch(new Regex(p), new StringReader(text),
+						chunk)) {
+					while (s.find())
+						results.add(s.getResult());
+				}
+				assertEquals(p + " " + chunk, expected, results);
+			}
+
+			ArrayList<String> results = new ArrayList<String>();
+			Utf8Search u = new Utf8Search(new Regex(p), text.getBytes(StandardCharsets.UTF_8));
+			while (u.find())
+				results.add(u.getResult());
+			assertEquals(p, expected, results);
+		}
+	}
+
+	@Test
+	public void testMatchesLookingAt() {
+		Regex r = new Regex("a(b|c)*");
+		assertTrue(new Search(r, "abcb").matches());
+		assertFalse(new Search(r, "abcbx").matches());
+		assertFalse(new Search(r, "xabcb").matches());
+		assertTrue(new Search(r, "abcbx").lookingAt());
+		assertFalse(new Search(r, "xabcb").lookingAt());
+		assertTrue(new Search(new Regex("x*"), "").matches());
+
+		// the region is the text that must be matched, and FIND goes on after it
+		Search s = new Search(new Regex("b+"), "abbcbb", 1, 6);
+		assertFalse(s.matches());
+		assertTrue(s.lookingAt());
+		assertEquals("bb", s.getResult());
+		assertTrue(s.find());
+		assertEquals(4, s.start());
+		assertFalse(s.find());
+		assertTrue(new Search(new Regex("^b+$"), "abbcbb", 1, 3).matches());
+	}
+
+	@Test
+	public void testGroups() {
+		Search s = new Search(new Regex("(\\w+)@((\\w+)(?:\\.(\\w+))?)|(x)"), "a@b.c xx@yy");
+		assertEquals(5, s.groupCount());
+		assertTrue(s.find());
+		assertEquals("a@b.c", s.getResult(0));
+		assertEquals("a", s.getResult(1));
+		assertEquals("b.c", s.getResult(2));
+		assertEquals(2, s.start(3));
+		assertEquals(3, s.end(3));
+		assertEquals("c", s.getResult(4));
+		assertEquals(-1, s.start(5));
+		assertNull(s.getResult(5));
+		assertTrue(s.find());
+		assertEquals("yy", s.getResult(2));
+		assertEquals(-1, s.start(4));
+		assertEquals(-1, s.end(4));
+		assertEquals(6, s.start());
+		assertFalse(s.find());
+
+		// the groups of a repetition are those of its last iteration
+		s = new Search(new Regex("(a|b(c))+d"), "abcad");
+		assertTrue(s.find());
+		assertEquals("a", s.getResult(1));
+		assertEquals("c", s.getResult(2));
+		assertTrue(new Search(new Regex("^(a+)$"), "aa").matches());
+		s = new Search(new Regex("x*(\\d+)"), "x12y", 0, 2);
+		assertTrue(s.lookingAt());
+		assertEquals("1", s.getResult(1));
+	}
+
+	@Test
+	public void testGroupsOutOfRange() {
+		Search s = new Search(new Regex("(a)b"), "ab");
+		try {
+			s.start(1);
+			fail();
+		} catch (IllegalStateException e) {
+		}
+		assertTrue(s.find());
+		try {
+			s.start(2);
+			fail();
+		} catch (IndexOutOfBoundsException e) {
+		}
+	}
+
+	@Test
+	public void testStartEnd() {
+		Search s = new Search(new Regex("b+|x*"), "abbcb");
+		int[][] expected = {{0, 0}, {1, 3}, {3, 3}, {4, 5}, {5, 5}};
+		for (int[] bounds : expected) {
+			assertTrue(s.find());
+			assertEquals(bounds[0], s.start());
+			assertEquals(bounds[1], s.end());
+			assertSame(s.getResult(), s.getResult());
+		}
+		assertFalse(s.find());
+		assertNull(s.getResult());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testStartNoMatch() {
+		Search s = new Search(new Regex("b"), "aaa");
+		s.find();
+		s.start();
+	}
+
+	@Test
+	public void testFindAll() {
+		Regex r = new Regex("ab+");
+		String text = "ab abb x abbb ab";
+		int[] offsets = new int[5];
+		Search s = new Search(r, text);
+		assertEquals(2, s.findAll(offsets));
+		assertArrayEquals(new int[] {0, 2, 3, 6, 0}, offsets);
+		assertEquals(2, s.findAll(offsets));
+		assertArrayEquals(new int[] {9, 13, 14, 16, 0}, offsets);
+		assertEquals(0, s.findAll(offsets));
+
+		IntBuffer buffer = IntBuffer.allocate(9);
+		buffer.put(-1);
+		assertEquals(4, new Search(r, text).findAll(buffer));
+		assertEquals(9, buffer.position());
+		assertArrayEquals(new int[] {-1, 0, 2, 3, 6, 9, 13, 14, 16}, buffer.array());
+	}
+
+	@Test
+	public void testParallelSearch() {
+		String text = "ab abb x abbb ab";
+		int[] expected = {0, 2, 3, 6, 9, 13, 14, 16};
+		assertArrayEquals(expected, ParallelSearch.findAll(new Regex("ab+"), text));
+
+		// matches running across segments, empty matches and a DFA that gives up
+		String[] patterns = {"ab+", "b*", "a.*?b", "(ab|b)+", "x|ab abb", ""};
+		ForkJoinPool pool = new ForkJoinPool(3);
+		for (String p : patterns) {
+			for (int size = 0; size < 2; size++) {
+				Regex r = new Regex(p);
+				if (size == 0)
+					r.setDFACacheSize(0);
+				int[] offsets = new int[2 * (text.length() + 1)];
+				int n = new Search(r, text).findAll(offsets);
+				int[] sequential = Arrays.copyOf(offsets, 2 * n);
+				for (int segment = 1; segment <= text.length() + 1; segment++)
+					assertArrayEquals(p + " " + segment, sequential,
+						ParallelSearch.findAll(r, text, pool, segment));
+			}
+		}
+		pool.shutdown();
+
+		assertArrayEquals(new int[] {0, 0}, ParallelSearch.findAll(new Regex("x*"), ""));
+		assertArrayEquals(new int[0], ParallelSearch.findAll(new Regex("x"), ""));
+	}
+
+	@Test
+	public void testBatchSearch() {
+		ArrayList<String> documents = new ArrayList<String>();
+		for (int i = 0; i < 1000; i++)
+			documents.add(i % 3 == 0 ? "x" + i + " abb" : "no match " + i);
+		Regex r = new Regex("ab+");
+
+		int[] bounds = new BatchSearch(r).find(documents);
+		assertEquals(2000, bounds.length);
+		for (int i = 0; i < 1000; i++) {
+			int start = i % 3 == 0 ? 2 + Integer.toString(i).length() : -1;
+			assertEquals(start, bounds[2 * i]);
+			assertEquals(start == -1 ? -1 : start + 3, bounds[2 * i + 1]);
+		}
+		assertEquals(334, new BatchSearch(r).count(documents));
+
+		// a single worker on the calling thread, and more workers than batches
+		assertEquals(334, new BatchSearch(r, Runnable::run, 1).count(documents.iterator()));
+		ForkJoinPool pool = new ForkJoinPool(2);
+		assertEquals(334, new BatchSearch(r, pool, 40).count(documents));
+		assertEquals(0, new BatchSearch(r, pool, 3).find(new ArrayList<String>()).length);
+		pool.shutdown();
+
+		// lists without indexed access, and documents in CharBuffers
+		assertArrayEquals(bounds, new BatchSearch(r).find(new LinkedList<String>(documents)));
+		ArrayList<CharBuffer> buffers = new ArrayList<CharBuffer>();
+		for (String d : documents)
+			buffers.add(CharBuffer.wrap(("." + d).toCharArray()).position(1));
+		assertArrayEquals(bounds, new BatchSearch(r).find(buffers));
+		assertEquals(334, new BatchSearch(r).count(buffers));
+	}
+
+	@Test(expected = NullPointerException.class)
+	public void testBatchSearchFailure() {
+		ArrayList<String> documents = new ArrayList<String>();
+		for (int i = 0; i < 1000; i++)
+			documents.add(i == 500 ? null : "abb");
+		new BatchSearch(new Regex("ab+")).count(documents);
+	}
+
+	@Test
+	public void testStats() throws Exception {
+		Regex simple = new Regex("ab+c");
+		Regex nested = new Regex("(ab|b)+c");
+		for (Regex r : new Regex[] {simple, nested}) {
+			Search s = new Search(r, "xabbc abc ac");
+			while (s.find())
+				;
+		}
+
+		// counted only when the JVM starts with -Dregex.stats=true
+		for (Regex r : new Regex[] {simple, nested}) {
+			RegexStats stats = r.getStats();
+			if (!RegexStats.isEnabled()) {
+				assertEquals(0, stats.searchCount());
+				assertEquals(0, stats.charsExamined());
+				continue;
+			}
+			assertEquals(3, stats.searchCount());
+			assertEquals(2, stats.matchCount());
+			assertTrue(stats.attemptCount() >= 2);
+			assertTrue(stats.charsExamined() >= 7);
+			assertTrue(stats.matcherInvocations() >= 2);
+			assertTrue(stats.nanos() > 0);
+			stats.reset();
+			assertEquals(0, stats.searchCount());
+		}
+
+		// and so are the searches of a text read in chunks
+		Regex chunked = new Regex("ab+c");
+		try (StreamSearch s = new StreamSearch(chunked, new StringReader("xabbc abc ac"), 2)) {
+			while (s.find())
+				;
+		}
+		RegexStats stats = chunked.getStats();
+		if (RegexStats.isEnabled()) {
+			assertEquals(2, stats.matchCount());
+			assertTrue(stats.charsExamined() > 0);
+			assertTrue(stats.matcherInvocations() > 0);
+		} else {
+			assertEquals(0, stats.searchCount());
+		}
+
+		// matches and lookingAt are searches, and finding groups adds to their work
+		for (Regex r : new Regex[] {simple, nested}) {
+			Search s = new Search(r, "abbc");
+			assertTrue(s.matches());
+			assertTrue(s.lookingAt());
+			stats = r.getStats();
+			if (!RegexStats.isEnabled()) {
+				assertEquals(0, stats.searchCount());
+				continue;
+			}
+			assertEquals(2, stats.searchCount());
+			assertEquals(2, stats.matchCount());
+			assertTrue(stats.charsExamined() >= 8);
+			long invocations = stats.matcherInvocations();
+			assertTrue(invocations >= 2);
+			if (r.groupCount() > 0) {
+				assertEquals("b", s.getResult(1));
+				assertEquals(2, stats.searchCount());
+				assertTrue(stats.matcherInvocations() > invocations);
+			}
+		}
+	}
+
+	@Test
+	public void testCompileBytecode() {
+		String text = "Cat bat\ncot 12-4 c\u00e9t \ud83d\ude00x c\nt";
+		String[] patterns = {"cat", "[cb]at", "c.t", "[^a-z ][a-z]", "[0-9][0-9]-[0-9]",
+			"[acegikmoqsuwy]t", "\\x{1F600}x", "t"};
+		for (String p : patterns) {
+			Regex r = new Regex(p);
+			ArrayList<String> expected = findAll(r, text);
+			assertTrue(p, r.compileBytecode());
+			assertEquals(p, expected, findAll(r, text));
+		}
+
+		// patterns run on the DFA engine, or without any matcher
+		assertFalse(new Regex("ca*t").compileBytecode());
+		assertFalse(new Regex("").compileBytecode());
+	}
+
+	@Test
+	public void testUnicodeProperty() throws Exception {
+		UnicodeProperty lu = UnicodeProperty.forName("Lu");
+		UnicodeProperty greek = UnicodeProperty.forName("IsGreek");
+		CodePointSet letters = UnicodeProperty.forName("L").getSet();
+		for (int c = 0; c <= Character.MAX_CODE_POINT; c++) {
+			assertEquals(Character.getType(c) == Character.UPPERCASE_LETTER, lu.contains(c));
+			assertEquals(Character.UnicodeScript.of(c) == Character.UnicodeScript.GREEK,
+				greek.contains(c));
+			// surrogates are only members as pairs
+			assertEquals(Character.isLetter(c) && !Character.isSurrogate((char)c)
+				|| c > CharSet.MAX && Character.isLetter(c), letters.contains(c));
+		}
+
+		// pairs split between the chunks of a stream
+		String text = "a\ud835\udc00b\ud83d\ude00\ud835\udc01";
+		ArrayList<String> expected = findAll(new Regex("\\p{Lu}|\\p{So}"), text);
+		assertEquals(Arrays.asList("\ud835\udc00", "\ud83d\ude00", "\ud835\udc01"), expected);
+		ArrayList<String> results = new ArrayList<String>();
+		try (StreamSearch s = new StreamSearch(new Regex("\\p{Lu}|\\p{So}"),
+				new StringReader(text), 1)) {
+			while (s.find())
+				results.add(s.getResult());
+		}
+		assertEquals(expected, results);
+	}
+
+	@Test
+	public void testCandidateScanner() {
+		char[] array = new char[1000];
+		Arrays.fill(array, 'z');
+		for (int i = 3; i < array.length; i += 97)
+			array[i] = (char)('a' + i % 3);
+		array[998] = '\u0100';
+		CharSequence text = Text.wrap(array, 1, array.length - 1);
+
+		CharSet set = new CharSet(new int[] {'a', 'b', '\u0100', '\u0100'});
+		CandidateScanner scanner = CandidateScanner.create(set);
+		for (int from = 0; from < text.length(); from++) {
+			int expected = -1;
+			for (int i = from; i < text.length() && expected == -1; i++) {
+				if (set.contains(text.charAt(i)))
+					expected = i;
+			}
+			int found = scanner.next(text, from, text.length());
+			assertTrue(expected == -1 ? found == -1 || found >= from : found >= from
+				&& found <= expected);
+		}
+		assertEquals(3, CandidateScanner.create(new CharSet(new int[] {'a', 'a'}))
+			.next(new String(array), 0, array.length));
+		assertNull(CandidateScanner.create(null));
+		assertNull(CandidateScanner.create(new CharSet(new int[] {'a', 'a', 'c', 'c', 'e', 'e',
+			'g', 'g', 'i', 'i'})));
+
+		// the same matches with the scanner on a buffer and on a string
+		String[] patterns = {"[ab]z", "(a|c)z*", "\u0100|bz", "z*a", "a", "bzz"};
+		for (String p : patterns) {
+			Regex r = new Regex(p);
+			assertEquals(p, findAll(r, text.toString()),
+				findAll(new Search(r, CharBuffer.wrap(array, 1, array.length - 1))));
+		}
+	}
+
+	@Test
+	public void testRegexSet() {
+		RegexSet set = new RegexSet("ab+c", "b*", "", "x(y|z)", "c.a", "[0-9]+");
+		assertEquals(6, set.size());
+		assertArrayEquals(new int[] {0, 1, 4}, set.matches("zabbbc abca"));
+		assertArrayEquals(new int[] {1, 3, 5}, set.matches("xz 42"));
+		assertArrayEquals(new int[] {1}, set.matches(""));
+
+		int[] bounds = new int[12];
+		assertArrayEquals(new int[] {0, 1, 4}, set.matches("zabbbc abca", bounds));
+		assertArrayEquals(new int[] {1, 6, 0, 0, -1, -1, -1, -1, 5, 8, -1, -1}, bounds);
+
+		// no DFA at all
+		set.setDFACacheSize(0);
+		assertArrayEquals(new int[] {0, 1, 4}, set.matches("zabbbc abca"));
+		assertArrayEquals(new int[] {}, new RegexSet().matches("abc"));
+		assertArrayEquals(new int[] {}, new RegexSet("").matches("abc"));
+	}
+
+	@Test
+	public void testRegexSetMany() {
+		String[] patterns = new String[500];
+		for (int i = 0; i < patterns.length; i++)
+			patterns[i] = "id" + i + "(x|y)*;";
+		RegexSet set = new RegexSet(patterns);
+		assertArrayEquals(new int[] {7, 42, 420}, set.matches("id7; id42xyx; id4200; id420;"));
+	}
+
+	@Test
+	public void testCompile() {
+		Regex r = Regex.compile("a(b|c)*");
+		assertSame(r, Regex.compile("a(b|c)*"));
+		assertTrue(new Search(r, "xabcb").find());
+	}
+
+	@Test
+	public void testRegexCache() {
+		RegexCache cache = new RegexCache(2);
+		Regex a = cache.get("a");
+		assertSame(a, cache.get("a"));
+		cache.get("b");
+		cache.get("c");		// "a" was used, so "b" is discarded
+		assertEquals(2, cache.size());
+		assertSame(a, cache.get("a"));
+		assertEquals(2, cache.hitCount());
+		assertEquals(3, cache.missCount());
+		assertEquals(1, cache.evictionCount());
+		try {
+			cache.get("a(");
+			fail();
+		} catch (InvalidRegexException e) {
+		}
+		assertEquals(2, cache.size());
+	}
+
+	@Test
+	public void testRegexCacheThreads() throws Exception {
+		final RegexCache cache = new RegexCache(20);
+		final AtomicInteger wrong = new AtomicInteger();
+		Thread[] threads = new Thread[16];
+		for (int i = 0; i < threads.length; i++) {
+			final int seed = i;
+			threads[i] = new Thread(new Runnable() {
+				public void run() {
+					for (int j = 0; j < 2000; j++) {
+						String pattern = "p" + (j * 7 + seed) % 50 + "x*";
+						if (!cache.get(pattern).toString().equals(pattern))
+							wrong.incrementAndGet();
+					}
+				}
+			});
+			threads[i].start();
+		}
+		for (Thread t : threads)
+			t.join();
+		assertEquals(0, wrong.get());
+		assertEquals(16 * 2000, cache.hitCount() + cache.missCount());
+		assertTrue(cache.size() <= 20);
+		// a miss adds nothing if another thread added the same pattern meanwhile
+		assertTrue(cache.evictionCount() <= cache.missCount() - cache.size());
+	}
+
+	@Test(timeout = 10000)
+	public void testConstructorLong() {
+		// compiling takes time linear in the length of the pattern
+		StringBuilder pattern = new StringBuilder("\\Q");
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 200000; i++)
+			text.append((char)('a' + i % 26));
+		pattern.append(text).append("\\E[");
+		for (int i = 0; i < 100000; i++)
+			pattern.append((char)(0x100 + i % 5000));
+		pattern.append(']');
+		text.append('\u0101');
+		Search s = new Search(new Regex(pattern.toString()), text);
+		assertTrue(s.find());
+		assertEquals(text.length(), s.end());
+
+		// and so does one with many '{' that are not intervals, each read only as far
+		// as the counts it could begin. Only the last one is, applied to a ','.
+		String braces = "{1,".repeat(200000);
+		text = new StringBuilder(braces.substring(3)).append(",,");
+		s = new Search(new Regex(braces + "}"), text);
+		assertTrue(s.find());
+		assertEquals(text.length(), s.end());
+	}
+
+	@Test(timeout = 10000)
+	public void testRepetitionLong() {
+		// each run of letters is scanned once, not once per position it may start at
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 200000; i++)
+			text.append("xa");
+		assertFalse(new Search(new Regex("x[a-z]*1"), text).find());
+		assertFalse(new Search(new Regex("\\s*\\w+="), text).find());
+		assertFalse(new Search(new Regex("[a-z]++1"), text).find());
+	}
+
+	@Test(timeout = 10000)
+	public void testAnchorsLong() {
+		// a pattern anchored at the beginning is tried there only
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 2000000; i++)
+			text.append('a');
+		Search s = new Search(new Regex("^(a|aa)*b"), text);
+		for (int i = 0; i < 1000; i++)
+			assertFalse(s.find());
+		assertFalse(new Search(new Regex("\\A(a|b)+c"), text).lookingAt());
+	}
+
+	@Test(timeout = 10000)
+	public void testGroupsLong() {
+		// only the text of each match is read again to find its groups
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 100000; i++)
+			text.append("xxxxxxxxxx k=v ");
+		Search s = new Search(new Regex("(\\w+)=(\\w+)"), text);
+		int count = 0;
+		while (s.find()) {
+			assertEquals(15 * count + 11, s.start(1));
+			assertEquals("v", s.getResult(2));
+			count++;
+		}
+		assertEquals(100000, count);
+	}
+
 }